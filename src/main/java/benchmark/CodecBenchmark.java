@@ -0,0 +1,56 @@
+package benchmark;
+
+import ticket.TicketBuilder;
+import utility.*;
+
+import java.io.IOException;
+
+/**
+ * Сравнение Java-сериализации {@link SerializationCodec} и двоичного формата {@link BinaryCodec}:
+ * размер закодированного сообщения и время кодирования и декодирования одного сообщения.
+ * <br>Запуск: java -cp laba6.jar benchmark.CodecBenchmark [количество итераций]
+ */
+public class CodecBenchmark {
+    public static void main(String[] args) throws IOException {
+        int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 200000;
+        TicketBuilder tb = new TicketBuilder();
+        tb.setName("Concert");
+        tb.setX("12");
+        tb.setY("-3");
+        tb.setPrice("1500");
+        tb.setType("VIP");
+        tb.setVenueCapacity("2000");
+        tb.setVenueType("OPEN_AREA");
+        tb.setAddressStreet("Kronverksky pr.");
+        tb.setAddressZipCode("197101");
+        Command removeById = new Command(new String[]{"remove_by_id", "42"}, "user", "password");
+        Command add = new Command(new String[]{"add"}, tb, "user", "password");
+        Answer answer = new Answer("Элемент с id 42 удален", true);
+        Codec[] codecs = {SerializationCodec.INSTANCE, BinaryCodec.INSTANCE};
+        System.out.printf("%-20s %-14s %8s %12s %12s%n", "codec", "message", "bytes", "encode ns", "decode ns");
+        for (Codec codec : codecs) {
+            run(codec, "remove_by_id", removeById, null, iterations);
+            run(codec, "add", add, null, iterations);
+            run(codec, "answer", null, answer, iterations);
+        }
+    }
+
+    private static void run(Codec codec, String label, Command command, Answer answer, int iterations) throws IOException {
+        byte[] data = command != null ? codec.encodeCommand(command) : codec.encodeAnswer(answer);
+        long sink = 0;
+        for (int round = 0; round < 2; round++) {
+            long start = System.nanoTime();
+            for (int i = 0; i < iterations; i++)
+                sink += (command != null ? codec.encodeCommand(command) : codec.encodeAnswer(answer)).length;
+            long encode = System.nanoTime() - start;
+            start = System.nanoTime();
+            for (int i = 0; i < iterations; i++)
+                sink += command != null ? codec.decodeCommand(data).getCommand().length : codec.decodeAnswer(data).text().length();
+            long decode = System.nanoTime() - start;
+            if (round == 1)
+                System.out.printf("%-20s %-14s %8d %12d %12d%n", codec.getClass().getSimpleName(), label, data.length,
+                        encode / iterations, decode / iterations);
+        }
+        if (sink == 42) System.out.println();
+    }
+}
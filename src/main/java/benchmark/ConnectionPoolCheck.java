@@ -0,0 +1,234 @@
+package benchmark;
+
+import utility.ConnectionPool;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.logging.Logger;
+
+/**
+ * Проверка {@link ConnectionPool} без базы данных: соединения подменяются заглушками {@link Proxy} интерфейса {@link Connection},
+ * которые выдает драйвер адреса {@link ConnectionPoolCheck#URL}. Проверяются ожидание и таймаут borrow, откат транзакции при возврате,
+ * выбрасывание соединения, не прошедшего {@link Connection#isValid}, и закрытие простаивающих соединений.
+ * Проверка идет около 10 с: соединение проверяется перед выдачей только после {@link ConnectionPool#VALIDATION_INTERVAL} мс простоя.
+ * <br>Запуск: java -cp laba6.jar benchmark.ConnectionPoolCheck. При ошибке завершается с кодом 1
+ */
+public class ConnectionPoolCheck {
+    private static final String URL = "jdbc:poolcheck:";
+
+    /**
+     * Состояние соединения-заглушки
+     */
+    private static final class FakeConnection implements InvocationHandler {
+        private volatile boolean closed = false;
+        private volatile boolean valid = true;
+        private boolean autoCommit = true;
+        private volatile int rollbacks = 0;
+        private volatile int validations = 0;
+
+        @Override
+        public synchronized Object invoke(Object proxy, Method method, Object[] args) throws SQLException {
+            switch (method.getName()) {
+                case "close" -> closed = true;
+                case "isClosed" -> {
+                    return closed;
+                }
+                case "isValid" -> {
+                    validations++;
+                    return valid && !closed;
+                }
+                case "rollback" -> {
+                    if (closed) throw new SQLException("Соединение закрыто");
+                    rollbacks++;
+                }
+                case "setAutoCommit" -> autoCommit = (Boolean) args[0];
+                case "getAutoCommit" -> {
+                    return autoCommit;
+                }
+                case "equals" -> {
+                    return proxy == args[0];
+                }
+                case "hashCode" -> {
+                    return System.identityHashCode(proxy);
+                }
+                case "toString" -> {
+                    return "FakeConnection@" + Integer.toHexString(System.identityHashCode(proxy));
+                }
+                default -> throw new SQLFeatureNotSupportedException(method.getName());
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Соединения, открытые драйвером заглушек, в порядке открытия. Соединения открывает только основной поток в {@link ConnectionPool#borrow}
+     */
+    private static final List<FakeConnection> opened = new ArrayList<>();
+    private static int failures = 0;
+
+    public static void main(String[] args) throws Exception {
+        DriverManager.registerDriver(new FakeDriver());
+        checkRollbackOnRelease();
+        checkBorrowTimeout();
+        checkValidation();
+        checkIdleEviction();
+        System.out.println(failures == 0 ? "Все проверки пройдены" : "Не пройдено проверок - " + failures);
+        if (failures > 0) System.exit(1);
+    }
+
+    /**
+     * Возврат откатывает транзакцию, а следующий borrow выдает то же соединение без проверки и без автофиксации
+     */
+    private static void checkRollbackOnRelease() throws SQLException {
+        opened.clear();
+        try (ConnectionPool pool = new ConnectionPool(URL, new Properties(), 2, 1000, 60000)) {
+            Connection first;
+            try (ConnectionPool.Lease lease = pool.borrow()) {
+                first = lease.connection();
+                check("соединение выдается без автофиксации", !first.getAutoCommit());
+            }
+            FakeConnection fake = handler(first);
+            check("возврат откатывает транзакцию", fake.rollbacks == 1);
+            try (ConnectionPool.Lease lease = pool.borrow()) {
+                check("недавно возвращенное соединение выдается повторно", lease.connection() == first);
+                check("недавно возвращенное соединение не проверяется", fake.validations == 0);
+            }
+            check("повторный возврат тоже откатывает транзакцию", fake.rollbacks == 2);
+            ConnectionPool.Lease broken = pool.borrow();
+            broken.connection().close();
+            broken.close();
+            check("закрытое соединение не возвращается в пул", pool.getOpen() == 0);
+        }
+    }
+
+    /**
+     * Когда все соединения выданы, borrow ждет не дольше таймаута, а освободившееся соединение получает ожидающий
+     */
+    private static void checkBorrowTimeout() throws Exception {
+        opened.clear();
+        long timeout = 300;
+        try (ConnectionPool pool = new ConnectionPool(URL, new Properties(), 2, timeout, 60000)) {
+            ConnectionPool.Lease a = pool.borrow(), b = pool.borrow();
+            long start = System.nanoTime();
+            try {
+                pool.borrow().close();
+                check("borrow при занятом пуле завершается таймаутом", false);
+            } catch (SQLTimeoutException e) {
+                long waited = (System.nanoTime() - start) / 1_000_000;
+                check("borrow ждет не меньше таймаута (" + waited + " мс)", waited >= timeout - 10);
+                check("borrow ждет не намного дольше таймаута (" + waited + " мс)", waited < timeout + 1000);
+            }
+            check("открыто не больше maxSize соединений", pool.getOpen() == 2 && opened.size() == 2);
+            Thread releaser = new Thread(() -> {
+                try {
+                    Thread.sleep(timeout / 3);
+                } catch (InterruptedException ignored) {
+                }
+                a.close();
+            });
+            releaser.start();
+            try (ConnectionPool.Lease c = pool.borrow()) {
+                check("ожидающий получает возвращенное соединение", c.connection() == a.connection());
+            }
+            releaser.join();
+            b.close();
+        }
+    }
+
+    /**
+     * Соединение, простоявшее дольше {@link ConnectionPool#VALIDATION_INTERVAL} мс и не прошедшее isValid, закрывается и заменяется новым
+     */
+    private static void checkValidation() throws Exception {
+        opened.clear();
+        try (ConnectionPool pool = new ConnectionPool(URL, new Properties(), 1, 1000, 60000)) {
+            Connection stale;
+            try (ConnectionPool.Lease lease = pool.borrow()) {
+                stale = lease.connection();
+            }
+            handler(stale).valid = false;
+            Thread.sleep(ConnectionPool.VALIDATION_INTERVAL + 200);
+            try (ConnectionPool.Lease lease = pool.borrow()) {
+                check("простоявшее соединение проверяется isValid", handler(stale).validations == 1);
+                check("не прошедшее проверку соединение закрывается", handler(stale).closed);
+                check("вместо него выдается новое", lease.connection() != stale && opened.size() == 2);
+                check("место выброшенного соединения освобождается", pool.getOpen() == 1);
+            }
+        }
+    }
+
+    /**
+     * Свободные соединения, простаивающие дольше idleTimeout, закрываются фоновым потоком
+     */
+    private static void checkIdleEviction() throws Exception {
+        opened.clear();
+        long idleTimeout = 1000;
+        try (ConnectionPool pool = new ConnectionPool(URL, new Properties(), 2, 1000, idleTimeout)) {
+            ConnectionPool.Lease a = pool.borrow(), b = pool.borrow();
+            a.close();
+            b.close();
+            check("возвращенные соединения остаются открытыми", pool.getOpen() == 2);
+            Thread.sleep(idleTimeout * 3);
+            check("простаивающие соединения закрываются", pool.getOpen() == 0 && opened.stream().allMatch(f -> f.closed));
+            try (ConnectionPool.Lease c = pool.borrow()) {
+                check("после закрытия простаивающих открывается новое соединение", opened.size() == 3 && !handler(c.connection()).closed);
+            }
+        }
+    }
+
+    private static FakeConnection handler(Connection connection) {
+        return (FakeConnection) Proxy.getInvocationHandler(connection);
+    }
+
+    private static void check(String name, boolean ok) {
+        System.out.printf("%-4s %s%n", ok ? "OK" : "FAIL", name);
+        if (!ok) failures++;
+    }
+
+    /**
+     * Драйвер, открывающий соединения-заглушки по адресу {@link ConnectionPoolCheck#URL}
+     */
+    private static final class FakeDriver implements Driver {
+        @Override
+        public Connection connect(String url, Properties info) {
+            if (!acceptsURL(url)) return null;
+            FakeConnection fake = new FakeConnection();
+            opened.add(fake);
+            return (Connection) Proxy.newProxyInstance(ConnectionPoolCheck.class.getClassLoader(), new Class<?>[]{Connection.class}, fake);
+        }
+
+        @Override
+        public boolean acceptsURL(String url) {
+            return url.startsWith(URL);
+        }
+
+        @Override
+        public DriverPropertyInfo[] getPropertyInfo(String url, Properties info) {
+            return new DriverPropertyInfo[0];
+        }
+
+        @Override
+        public int getMajorVersion() {
+            return 1;
+        }
+
+        @Override
+        public int getMinorVersion() {
+            return 0;
+        }
+
+        @Override
+        public boolean jdbcCompliant() {
+            return false;
+        }
+
+        @Override
+        public Logger getParentLogger() throws SQLFeatureNotSupportedException {
+            throw new SQLFeatureNotSupportedException();
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package benchmark;
+
+import ticket.*;
+import utility.LongIndex;
+import utility.TicketVector;
+
+import java.time.LocalDateTime;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Vector;
+
+/**
+ * Сравнение способов поиска билета по id: полный просмотр коллекции (как было в {@link TicketVector} до индекса), {@link HashMap} с упакованными ключами
+ * и примитивный индекс {@link LongIndex}. Также измеряются проверка id и удаление с повторным добавлением в самом {@link TicketVector}.
+ * <br>Запуск: java -Xmx2g -cp laba6.jar benchmark.IdIndexBenchmark [количество билетов] [количество операций]
+ */
+public class IdIndexBenchmark {
+    public static void main(String[] args) {
+        int n = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        int ops = args.length > 1 ? Integer.parseInt(args[1]) : 1_000_000;
+        Address address = new Address("Kronverksky pr.", "197101");
+        LocalDateTime now = LocalDateTime.now();
+        Vector<Ticket> vector = new Vector<>(n);
+        TicketVector tv = new TicketVector();
+        LongIndex index = new LongIndex();
+        Map<Long, Long> boxed = new HashMap<>();
+        for (int i = 0; i < n; i++) {
+            long id = i + 1;
+            Ticket t = new Ticket(id, "Concert", new Coordinates(i, i), now, 1 + i % 1000, TicketType.values()[i % 4],
+                    new Venue(id, "Concert", (long) (1 + i % 5000), VenueType.BAR, address));
+            vector.add(t);
+            tv.add(t);
+            index.put(id, i);
+            boxed.put(id, (long) i);
+        }
+        Random random = new Random(42);
+        long[] ids = new long[ops];
+        for (int i = 0; i < ops; i++) ids[i] = 1 + random.nextInt(n);
+        System.out.printf("Билетов - %d, операций - %d%n", n, ops);
+        System.out.printf("%-36s %12s%n", "operation", "ns/op");
+        int scans = Math.max(1, Math.min(ops, 200));
+        for (int round = 0; round < 2; round++) {
+            long sink = 0;
+            long start = System.nanoTime();
+            for (int i = 0; i < scans; i++) {
+                long id = ids[i];
+                sink += vector.stream().anyMatch(t -> t.getId() == id) ? 1 : 0;
+            }
+            report(round, "scan Vector (old validId)", start, scans);
+            start = System.nanoTime();
+            for (long id : ids) sink += boxed.containsKey(id) ? 1 : 0;
+            report(round, "HashMap<Long, Long>.containsKey", start, ops);
+            start = System.nanoTime();
+            for (long id : ids) sink += index.get(id);
+            report(round, "LongIndex.get", start, ops);
+            start = System.nanoTime();
+            for (long id : ids) sink += tv.validId(id) ? 1 : 0;
+            report(round, "TicketVector.validId", start, ops);
+            List<Ticket> sample = vector.subList(0, Math.min(n, 20_000));
+            start = System.nanoTime();
+            for (Ticket t : sample) {
+                tv.removeById(t.getId());
+                tv.add(t);
+            }
+            report(round, "TicketVector.removeById + add", start, sample.size());
+            if (sink == 42) System.out.println();
+        }
+    }
+
+    private static void report(int round, String label, long start, int ops) {
+        if (round == 1) System.out.printf("%-36s %12d%n", label, (System.nanoTime() - start) / ops);
+    }
+}
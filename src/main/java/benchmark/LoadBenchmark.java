@@ -0,0 +1,119 @@
+package benchmark;
+
+import utility.*;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Нагрузочный тест запущенного сервера: пропускная способность и 99-й перцентиль задержки при заданном числе одновременных клиентов.
+ * <br>Каждый клиент держит свою сессию {@link ServerConnection} и без пауз отправляет одну и ту же команду.
+ * Ответы "Сервер перегружен" считаются отдельно от ошибок и в задержки не входят.
+ * <br>Для сравнения режимов исполнения сервер запускается с -Dexecution=platform или -Dexecution=virtual, после чего:
+ * <br>java -cp laba6.jar benchmark.LoadBenchmark [секунд на замер] [команда] [число клиентов...]
+ * <br>По умолчанию: 10 секунд, команда info, 10, 100 и 1000 клиентов
+ */
+public class LoadBenchmark {
+    public static void main(String[] args) throws Exception {
+        long seconds = args.length > 0 ? Long.parseLong(args[0]) : 10;
+        String[] command = (args.length > 1 ? args[1] : "info").split(" ");
+        int[] levels = args.length > 2
+                ? Arrays.stream(args, 2, args.length).mapToInt(Integer::parseInt).toArray()
+                : new int[]{10, 100, 1000};
+        System.out.printf("%8s %12s %10s %10s %10s %8s%n", "clients", "req/s", "p50 ms", "p99 ms", "rejected", "errors");
+        for (int clients : levels) run(clients, seconds, command);
+    }
+
+    private static void run(int clients, long seconds, String[] command) throws Exception {
+        Histogram latencies = new Histogram();
+        LongAdder requests = new LongAdder();
+        LongAdder rejected = new LongAdder();
+        AtomicLong errors = new AtomicLong();
+        CountDownLatch ready = new CountDownLatch(clients);
+        CountDownLatch go = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(clients);
+        AtomicLong deadline = new AtomicLong();
+        for (int i = 0; i < clients; i++) {
+            Thread t = new Thread(() -> {
+                try (ServerConnection conn = new ServerConnection(Server.PORT, BinaryCodec.INSTANCE)) {
+                    ready.countDown();
+                    go.await();
+                    while (System.nanoTime() < deadline.get()) {
+                        long start = System.nanoTime();
+                        Answer answer = conn.request(new Command(command, "bench", "bench"));
+                        if (answer == null) {
+                            errors.incrementAndGet();
+                        } else if (answer.text().startsWith("Сервер перегружен")) {
+                            rejected.increment();
+                        } else {
+                            latencies.record(System.nanoTime() - start);
+                            requests.increment();
+                        }
+                    }
+                } catch (IOException | InterruptedException e) {
+                    errors.incrementAndGet();
+                    ready.countDown();
+                } finally {
+                    done.countDown();
+                }
+            });
+            t.start();
+        }
+        ready.await();
+        deadline.set(System.nanoTime() + seconds * 1_000_000_000L);
+        go.countDown();
+        done.await();
+        System.out.printf("%8d %12.0f %10.2f %10.2f %10d %8d%n", clients, (double) requests.sum() / seconds,
+                latencies.percentile(0.5) / 1e6, latencies.percentile(0.99) / 1e6, rejected.sum(), errors.get());
+    }
+
+    /**
+     * Гистограмма задержек с относительной точностью около 1.5%. Значения до 128 мкс хранятся точно,
+     * большие делятся на 64 корзины на каждую степень двойки. Память не зависит от числа замеров, общая для всех клиентов
+     */
+    private static class Histogram {
+        private static final int EXACT = 128;
+        private static final int SUB_BUCKETS = 64;
+        private final AtomicLongArray counts = new AtomicLongArray(EXACT + (Long.SIZE - 7) * SUB_BUCKETS);
+
+        void record(long nanos) {
+            counts.incrementAndGet(index(Math.max(0, nanos / 1000)));
+        }
+
+        private static int index(long micros) {
+            if (micros < EXACT) return (int) micros;
+            int exp = 63 - Long.numberOfLeadingZeros(micros);
+            return EXACT + (exp - 7) * SUB_BUCKETS + (int) ((micros >>> (exp - 6)) & (SUB_BUCKETS - 1));
+        }
+
+        /**
+         * @return возвращает нижнюю границу корзины с номером index в микросекундах
+         */
+        private static long value(int index) {
+            if (index < EXACT) return index;
+            int exp = (index - EXACT) / SUB_BUCKETS + 7;
+            return (long) (SUB_BUCKETS + (index - EXACT) % SUB_BUCKETS) << (exp - 6);
+        }
+
+        /**
+         * @param q доля замеров от 0 до 1
+         * @return возвращает перцентиль в наносекундах или 0, если замеров нет
+         */
+        double percentile(double q) {
+            long total = 0;
+            for (int i = 0; i < counts.length(); i++) total += counts.get(i);
+            if (total == 0) return 0;
+            long rank = (long) Math.ceil(total * q);
+            long seen = 0;
+            for (int i = 0; i < counts.length(); i++) {
+                seen += counts.get(i);
+                if (seen >= Math.max(rank, 1)) return value(i) * 1000.0;
+            }
+            return value(counts.length() - 1) * 1000.0;
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package benchmark;
+
+import utility.NameIndex;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Сравнение поиска по подстроке в названиях: полный просмотр с {@link String#contains} (как было в {@link utility.TicketVector#filterContainsName} до индекса)
+ * и индекс триграмм {@link NameIndex} с проверкой кандидатов. Порядковый номер названия совпадает с его индексом в массиве.
+ * <br>Запуск: java -Xmx2g -cp laba6.jar benchmark.NameIndexBenchmark [количество названий] [количество запросов]
+ */
+public class NameIndexBenchmark {
+    private static final String[] SYLLABLES = {"ka", "ro", "mi", "ten", "sol", "va", "nor", "li", "das", "pe", "qu", "zen", "bo", "rit", "ul", "xa"};
+
+    public static void main(String[] args) {
+        int n = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        int queries = args.length > 1 ? Integer.parseInt(args[1]) : 200;
+        Random random = new Random(42);
+        String[] names = new String[n];
+        for (int i = 0; i < n; i++) names[i] = name(random);
+        long start = System.nanoTime();
+        NameIndex index = new NameIndex();
+        for (int i = 0; i < n; i++) index.add(i, names[i]);
+        System.out.printf("Названий - %d, запросов - %d, построение индекса - %d мс%n", n, queries, (System.nanoTime() - start) / 1_000_000);
+        System.out.printf("%-8s %14s %14s %10s%n", "length", "scan ns/op", "index ns/op", "found");
+        for (int length : new int[]{2, 3, 5, 8}) {
+            String[] q = new String[queries];
+            for (int i = 0; i < queries; i++) {
+                String source = names[random.nextInt(n)];
+                while (source.length() < length) source = names[random.nextInt(n)];
+                int from = random.nextInt(source.length() - length + 1);
+                q[i] = source.substring(from, from + length);
+            }
+            long found = 0, scan = 0, indexed = 0;
+            for (int round = 0; round < 2; round++) {
+                found = 0;
+                start = System.nanoTime();
+                for (String s : q) found += scan(names, s).size();
+                scan = (System.nanoTime() - start) / queries;
+                long check = 0;
+                start = System.nanoTime();
+                for (String s : q) check += search(names, index, s).size();
+                indexed = (System.nanoTime() - start) / queries;
+                if (check != found) throw new IllegalStateException("Результаты не совпадают: " + found + " и " + check);
+            }
+            System.out.printf("%-8d %14d %14d %10d%n", length, scan, indexed, found / queries);
+        }
+    }
+
+    private static String name(Random random) {
+        StringBuilder sb = new StringBuilder();
+        int parts = 2 + random.nextInt(4);
+        for (int i = 0; i < parts; i++) sb.append(SYLLABLES[random.nextInt(SYLLABLES.length)]);
+        return sb.toString();
+    }
+
+    private static List<String> scan(String[] names, String query) {
+        List<String> result = new ArrayList<>();
+        for (String name : names) if (name.contains(query)) result.add(name);
+        return result;
+    }
+
+    private static List<String> search(String[] names, NameIndex index, String query) {
+        int[] candidates = index.candidates(query);
+        if (candidates == null) return scan(names, query);
+        List<String> result = new ArrayList<>();
+        for (int seq : candidates) if (names[seq].contains(query)) result.add(names[seq]);
+        return result;
+    }
+}
@@ -0,0 +1,72 @@
+package benchmark;
+
+import ticket.*;
+import utility.TicketVector;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Supplier;
+
+/**
+ * Пропускная способность запросов {@link TicketVector}, которые просматривают или упорядочивают много элементов, при разном числе потоков
+ * пула запросов {@link TicketVector#setQueryPool}: seq - последовательно в вызывающем потоке, затем пулы из 1..N потоков.
+ * Вид хранилища задается системным свойством ticketStore, порог параллельного исполнения - parallelThreshold.
+ * <br>Запуск: java -Xmx4g -cp laba6.jar benchmark.ParallelQueryBenchmark [количество билетов] [наибольшее число потоков] [секунд на замер]
+ */
+public class ParallelQueryBenchmark {
+    public static void main(String[] args) {
+        int n = args.length > 0 ? Integer.parseInt(args[0]) : 500_000;
+        int maxThreads = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+        double seconds = args.length > 2 ? Double.parseDouble(args[2]) : 2;
+        TicketVector tv = new TicketVector();
+        fill(tv, n);
+        System.out.printf("Билетов - %d, процессоров - %d%n", n, Runtime.getRuntime().availableProcessors());
+        String[] names = {"show", "contains \"ka\"", "price < 5000", "ascending_type"};
+        List<Supplier<List<Ticket>>> queries = List.of(tv::getAll, () -> tv.filterContainsName("ka"), () -> tv.filterLessThanPrice(5000),
+                tv::getAscendingType);
+        System.out.printf("%-8s", "threads");
+        for (String name : names) System.out.printf(" %16s", name);
+        System.out.println(" (запросов в секунду)");
+        for (int threads = 0; threads <= maxThreads; threads++) {
+            ForkJoinPool pool = threads == 0 ? null : new ForkJoinPool(threads);
+            tv.setQueryPool(pool);
+            System.out.printf("%-8s", threads == 0 ? "seq" : String.valueOf(threads));
+            for (Supplier<List<Ticket>> query : queries) System.out.printf(" %16.1f", throughput(query, seconds));
+            System.out.println();
+            if (pool != null) pool.shutdown();
+        }
+    }
+
+    /**
+     * @return возвращает число выполненных запросов в секунду после прогрева
+     */
+    private static double throughput(Supplier<List<Ticket>> query, double seconds) {
+        long sink = 0;
+        for (int i = 0; i < 3; i++) sink += query.get().size();
+        long limit = (long) (seconds * 1e9), count = 0;
+        long start = System.nanoTime(), elapsed;
+        do {
+            sink += query.get().size();
+            count++;
+            elapsed = System.nanoTime() - start;
+        } while (elapsed < limit);
+        if (sink == 42) System.out.println();
+        return count * 1e9 / elapsed;
+    }
+
+    private static void fill(TicketVector tv, int n) {
+        Random random = new Random(42);
+        String[] syllables = {"ka", "ro", "mi", "ten", "sol", "va", "nor", "li", "das", "pe", "qu", "zen"};
+        LocalDateTime base = LocalDateTime.of(2024, 1, 1, 0, 0);
+        for (int i = 0; i < n; i++) {
+            long id = i + 1;
+            String name = syllables[random.nextInt(syllables.length)] + syllables[random.nextInt(syllables.length)] + random.nextInt(100);
+            Address address = new Address("Street " + random.nextInt(1000), String.valueOf(190000 + random.nextInt(1000)));
+            Venue venue = new Venue(id, name, (long) (1 + random.nextInt(5000)), VenueType.values()[random.nextInt(VenueType.values().length)], address);
+            tv.add(new Ticket(id, name, new Coordinates(random.nextInt(1000), random.nextInt(1000)), base.plusSeconds(random.nextInt(1_000_000)),
+                    1 + random.nextInt(10_000), TicketType.values()[random.nextInt(4)], venue));
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package benchmark;
+
+import ticket.*;
+import utility.MappedTicketStore;
+import utility.TicketStore;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.time.LocalDateTime;
+import java.util.Random;
+
+/**
+ * Сравнение объема памяти на билет в хранилищах {@link utility.HeapTicketStore} (объекты {@link Ticket}, как коллекция хранила билеты раньше),
+ * {@link utility.ColumnarTicketStore} (примитивные столбцы и словарь строк) и {@link utility.MappedTicketStore} (файлы вне кучи).
+ * Билеты создаются так же, как при загрузке из базы данных: у каждого билета свои объекты строк, даты и адреса.
+ * Объем считается по занятой куче после сборки мусора. Хранилище mapped занимает в файлах {@link MappedTicketStore#RECORD} байт на запись и строки.
+ * Файлы mapped пишутся во временный каталог, если не задано системное свойство ticketStoreDir.
+ * <br>Запуск: java -Xmx4g -cp laba6.jar benchmark.TicketStoreBenchmark [количество билетов] [количество разных названий]
+ */
+public class TicketStoreBenchmark {
+    public static void main(String[] args) throws IOException {
+        int n = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        int distinct = args.length > 1 ? Integer.parseInt(args[1]) : 10_000;
+        System.out.printf("Билетов - %d, разных названий - %d%n", n, distinct);
+        if (System.getProperty("ticketStoreDir") == null)
+            System.setProperty("ticketStoreDir", Files.createTempDirectory("tickets").toString());
+        System.out.printf("%-10s %14s %16s%n", "store", "bytes/ticket", "get ns/op");
+        for (String kind : new String[]{"heap", "columnar", "mapped"}) {
+            long before = usedMemory();
+            TicketStore store = TicketStore.forName(kind);
+            fill(store, n, distinct);
+            long bytes = usedMemory() - before;
+            long sink = 0;
+            long start = System.nanoTime();
+            for (int row = 0; row < n; row++) sink += store.get(row).getPrice();
+            long get = (System.nanoTime() - start) / n;
+            System.out.printf("%-10s %14d %16d%n", kind, bytes / n, get);
+            store.close(-1);
+            if (sink == 42) System.out.println();
+        }
+    }
+
+    private static void fill(TicketStore store, int n, int distinct) {
+        Random random = new Random(42);
+        LocalDateTime base = LocalDateTime.of(2024, 1, 1, 0, 0);
+        for (int i = 0; i < n; i++) {
+            long id = i + 1;
+            String name = new String("Ticket-" + random.nextInt(distinct));
+            Address address = new Address(new String("Street " + random.nextInt(distinct)), new String(String.valueOf(190000 + random.nextInt(1000))));
+            Venue venue = new Venue(id, name, (long) (1 + random.nextInt(5000)), VenueType.values()[random.nextInt(VenueType.values().length)], address);
+            store.add(new Ticket(id, name, new Coordinates(random.nextInt(1000), random.nextInt(1000)), base.plusSeconds(random.nextInt(1_000_000)),
+                    1 + random.nextInt(10_000), TicketType.values()[random.nextInt(4)], venue));
+        }
+    }
+
+    private static long usedMemory() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) System.gc();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
@@ -102,6 +102,10 @@ public class Ticket implements Comparable<Ticket>, Serializable {
         return coordinates.y();
     }
 
+    public java.time.LocalDateTime getCreationDate() {
+        return creationDate;
+    }
+
     public Coordinates getCoordinates() {
         return coordinates;
     }
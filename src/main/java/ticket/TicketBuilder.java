@@ -67,6 +67,32 @@ public class TicketBuilder implements Serializable, Comparable<TicketBuilder> {
         this.y = coordinates.y();
     }
 
+    /**
+     * Восстанавливает создателя из уже проверенных значений полей (например, полученных по сети). Любое поле может быть null
+     */
+    public TicketBuilder(Long id, String name, Integer x, Integer y, Integer price, TicketType type, Long venueCapacity,
+                         VenueType venueType, String addressStreet, String addressZipCode, LocalDateTime creationDate) {
+        this.id = id;
+        this.name = name;
+        this.x = x;
+        this.y = y;
+        this.price = price;
+        this.type = type;
+        this.venueCapacity = venueCapacity;
+        this.venueType = venueType;
+        this.addressStreet = addressStreet;
+        this.addressZipCode = addressZipCode;
+        this.creationDate = creationDate;
+    }
+
+    /**
+     * Создает независимую копию другого создателя
+     */
+    public TicketBuilder(TicketBuilder tb) {
+        this(tb.id, tb.name, tb.x, tb.y, tb.price, tb.type, tb.venueCapacity, tb.venueType, tb.addressStreet, tb.addressZipCode, tb.creationDate);
+        this.coordinates = tb.coordinates;
+    }
+
     public String setName(String name) {
         if (name.equals("")) return "Строка не может быть пустой";
         this.name = name;
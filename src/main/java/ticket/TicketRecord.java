@@ -0,0 +1,37 @@
+package ticket;
+
+import java.io.Serializable;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+
+/**
+ * Рекорд компактного представления билета {@link Ticket} для передачи клиенту.
+ * <br>Содержит только значения полей, строковое представление строит сам клиент {@link TicketRecord#toString}.
+ * Место назначения всегда имеет те же id и название, что и билет ({@link TicketBuilder#getTicket}), поэтому они не передаются отдельно
+ */
+public record TicketRecord(long id, String name, int x, int y, LocalDateTime creationDate, int price, TicketType type,
+                           long venueCapacity, VenueType venueType, String street, String zipCode) implements Serializable {
+    private static final DateTimeFormatter DATE_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+
+    public static TicketRecord of(Ticket t) {
+        Venue venue = t.getVenue();
+        return new TicketRecord(t.getId(), t.getName(), t.getX(), t.getY(), t.getCreationDate(), t.getPrice(), t.getType(),
+                venue.getCapacity(), venue.getType(), venue.getAddress().street(), venue.getAddress().zipCode());
+    }
+
+    /**
+     * @return возвращает строку того же вида, что и {@link Ticket#toString}
+     */
+    @Override
+    public String toString() {
+        return new StringBuilder(160)
+                .append("{id:").append(id).append(", name:").append(name)
+                .append(", coordinates:{x:").append(x).append(", y:").append(y)
+                .append("}, creationDate:").append(DATE_FORMAT.format(creationDate))
+                .append(", price:").append(price).append(", type:").append(type)
+                .append(", venue:{id:").append(id).append(", name:").append(name)
+                .append(", capacity:").append(venueCapacity).append(", type:").append(venueType)
+                .append(", address:{street:").append(street).append(", zipCode:").append(zipCode).append("}}}")
+                .toString();
+    }
+}
@@ -1,11 +1,18 @@
 package utility;
 
+import ticket.TicketRecord;
+
 import java.io.Serializable;
+import java.util.List;
 
 /**
  * Рекорд, используемый для передачи ответа с сервера клиенту
  * @param text будет печататься в любом случае
  * @param systemInformation будет печататься только если {@link ConsoleWriter#inputStatus} != 1
+ * @param tickets билеты в компактном виде {@link TicketRecord}. Присылаются вместо текста, если клиент запросил их командой с {@link Command#isStructured}
  */
-public record Answer(String text, boolean systemInformation) implements Serializable {
+public record Answer(String text, boolean systemInformation, List<TicketRecord> tickets) implements Serializable {
+    public Answer(String text, boolean systemInformation) {
+        this(text, systemInformation, List.of());
+    }
 }
@@ -0,0 +1,308 @@
+package utility;
+
+import ticket.TicketBuilder;
+import ticket.TicketRecord;
+import ticket.TicketType;
+import ticket.VenueType;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.DateTimeException;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Компактное двоичное кодирование команд и ответов.
+ * <br>Первый байт - номер версии формата {@link BinaryCodec#VERSION}. Целые числа пишутся в формате varint,
+ * строки - длиной и байтами UTF-8, перечисления {@link TicketType} и {@link VenueType} - порядковым номером.
+ * Необязательные поля отмечаются битами в байте флагов, поэтому null не занимает места
+ */
+public class BinaryCodec implements Codec {
+    /**
+     * Номер версии формата. Не должен совпадать с первым байтом потока Java-сериализации (0xAC)
+     */
+    public static final byte VERSION = 1;
+    public static final BinaryCodec INSTANCE = new BinaryCodec();
+
+    private static final int HAS_TICKET = 1;
+    private static final int HAS_NAME = 1 << 1;
+    private static final int HAS_PASSWORD = 1 << 2;
+    private static final int HAS_TIMEOUT = 1 << 3;
+    private static final int ORDERED = 1 << 4;
+    private static final int STRUCTURED = 1 << 5;
+    private static final int SYSTEM_INFORMATION = 1;
+    private static final int HAS_TICKETS = 1 << 1;
+
+    @Override
+    public byte[] encodeCommand(Command command) {
+        Writer w = new Writer(64);
+        w.writeByte(VERSION);
+        int flags = (command.getTicketBuilder() != null ? HAS_TICKET : 0)
+                | (command.getName() != null ? HAS_NAME : 0)
+                | (command.getPassword() != null ? HAS_PASSWORD : 0)
+                | (command.getTimeout() != 0 ? HAS_TIMEOUT : 0)
+                | (command.isOrdered() ? ORDERED : 0)
+                | (command.isStructured() ? STRUCTURED : 0);
+        w.writeByte(flags);
+        w.writeVarInt(command.getCommand().length);
+        for (String word : command.getCommand()) w.writeString(word);
+        if (command.getName() != null) w.writeString(command.getName());
+        if (command.getPassword() != null) w.writeString(command.getPassword());
+        if (command.getTicketBuilder() != null) writeTicketBuilder(w, command.getTicketBuilder());
+        if (command.getTimeout() != 0) w.writeVarLong(command.getTimeout());
+        return w.toByteArray();
+    }
+
+    @Override
+    public Command decodeCommand(byte[] data) throws IOException {
+        try {
+            Reader r = new Reader(data);
+            int flags = r.readByte();
+            int count = r.readVarInt();
+            if (count <= 0 || count > r.remaining()) throw new IllegalArgumentException("Неверное число слов команды");
+            String[] words = new String[count];
+            for (int i = 0; i < words.length; i++) words[i] = r.readString();
+            String name = (flags & HAS_NAME) != 0 ? r.readString() : null;
+            String password = (flags & HAS_PASSWORD) != 0 ? r.readString() : null;
+            Command command = (flags & HAS_TICKET) != 0
+                    ? new Command(words, readTicketBuilder(r), name, password)
+                    : new Command(words, name, password);
+            if ((flags & HAS_TIMEOUT) != 0) command.setTimeout(r.readVarLong());
+            command.setOrdered((flags & ORDERED) != 0);
+            command.setStructured((flags & STRUCTURED) != 0);
+            return command;
+        } catch (BufferUnderflowException | IndexOutOfBoundsException | IllegalArgumentException | DateTimeException e) {
+            throw new IOException("Повреждена команда", e);
+        }
+    }
+
+    @Override
+    public byte[] encodeAnswer(Answer answer) {
+        Writer w = new Writer(16 + answer.text().length() + 64 * answer.tickets().size());
+        w.writeByte(VERSION);
+        w.writeByte((answer.systemInformation() ? SYSTEM_INFORMATION : 0) | (answer.tickets().isEmpty() ? 0 : HAS_TICKETS));
+        w.writeString(answer.text());
+        if (!answer.tickets().isEmpty()) {
+            w.writeVarInt(answer.tickets().size());
+            for (TicketRecord t : answer.tickets()) w.writeTicketRecord(t);
+        }
+        return w.toByteArray();
+    }
+
+    @Override
+    public Answer decodeAnswer(byte[] data) throws IOException {
+        try {
+            Reader r = new Reader(data);
+            int flags = r.readByte();
+            String text = r.readString();
+            if ((flags & HAS_TICKETS) == 0) return new Answer(text, (flags & SYSTEM_INFORMATION) != 0);
+            int count = r.readVarInt();
+            if (count < 0) throw new IllegalArgumentException("Неверное число билетов");
+            List<TicketRecord> tickets = new ArrayList<>(Math.min(count, 4096));
+            for (int i = 0; i < count; i++) tickets.add(r.readTicketRecord());
+            return new Answer(text, (flags & SYSTEM_INFORMATION) != 0, tickets);
+        } catch (BufferUnderflowException | IndexOutOfBoundsException | IllegalArgumentException | DateTimeException e) {
+            throw new IOException("Поврежден ответ", e);
+        }
+    }
+
+    /**
+     * Пишет поля {@link TicketBuilder}. Перед полями идет битовая маска заполненных полей
+     */
+    private static void writeTicketBuilder(Writer w, TicketBuilder tb) {
+        Object[] fields = {tb.getId(), tb.getName(), tb.getX(), tb.getY(), tb.getPrice(), tb.getType(),
+                tb.getVenueCapacity(), tb.getVenueType(), tb.getAddressStreet(), tb.getAddressZipCode(), tb.getCreationDate()};
+        int mask = 0;
+        for (int i = 0; i < fields.length; i++) if (fields[i] != null) mask |= 1 << i;
+        w.writeVarInt(mask);
+        if (tb.getId() != null) w.writeVarLong(tb.getId());
+        if (tb.getName() != null) w.writeString(tb.getName());
+        if (tb.getX() != null) w.writeVarInt(tb.getX());
+        if (tb.getY() != null) w.writeVarInt(tb.getY());
+        if (tb.getPrice() != null) w.writeVarInt(tb.getPrice());
+        if (tb.getType() != null) w.writeByte(tb.getType().ordinal());
+        if (tb.getVenueCapacity() != null) w.writeVarLong(tb.getVenueCapacity());
+        if (tb.getVenueType() != null) w.writeByte(tb.getVenueType().ordinal());
+        if (tb.getAddressStreet() != null) w.writeString(tb.getAddressStreet());
+        if (tb.getAddressZipCode() != null) w.writeString(tb.getAddressZipCode());
+        if (tb.getCreationDate() != null) w.writeDateTime(tb.getCreationDate());
+    }
+
+    private static TicketBuilder readTicketBuilder(Reader r) {
+        int mask = r.readVarInt();
+        return new TicketBuilder(
+                (mask & 1) != 0 ? r.readVarLong() : null,
+                (mask & 1 << 1) != 0 ? r.readString() : null,
+                (mask & 1 << 2) != 0 ? r.readVarInt() : null,
+                (mask & 1 << 3) != 0 ? r.readVarInt() : null,
+                (mask & 1 << 4) != 0 ? r.readVarInt() : null,
+                (mask & 1 << 5) != 0 ? TicketType.values()[r.readByte()] : null,
+                (mask & 1 << 6) != 0 ? r.readVarLong() : null,
+                (mask & 1 << 7) != 0 ? VenueType.values()[r.readByte()] : null,
+                (mask & 1 << 8) != 0 ? r.readString() : null,
+                (mask & 1 << 9) != 0 ? r.readString() : null,
+                (mask & 1 << 10) != 0 ? r.readDateTime() : null);
+    }
+
+    /**
+     * Растущий буфер для записи в двоичном формате
+     */
+    static class Writer {
+        private byte[] buf;
+        private int pos = 0;
+
+        Writer(int capacity) {
+            buf = new byte[Math.max(capacity, 16)];
+        }
+
+        private void ensure(int n) {
+            if (pos + n > buf.length) buf = Arrays.copyOf(buf, Math.max(buf.length * 2, pos + n));
+        }
+
+        void writeByte(int b) {
+            ensure(1);
+            buf[pos++] = (byte) b;
+        }
+
+        /**
+         * Пишет число в формате zigzag varint: небольшие по модулю числа занимают один-два байта
+         */
+        void writeVarInt(int v) {
+            writeVarLong(v);
+        }
+
+        void writeVarLong(long v) {
+            ensure(10);
+            long zz = (v << 1) ^ (v >> 63);
+            while ((zz & ~0x7FL) != 0) {
+                buf[pos++] = (byte) ((zz & 0x7F) | 0x80);
+                zz >>>= 7;
+            }
+            buf[pos++] = (byte) zz;
+        }
+
+        void writeString(String s) {
+            byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+            writeVarInt(bytes.length);
+            ensure(bytes.length);
+            System.arraycopy(bytes, 0, buf, pos, bytes.length);
+            pos += bytes.length;
+        }
+
+        void writeDateTime(LocalDateTime dt) {
+            writeVarLong(dt.toEpochSecond(ZoneOffset.UTC));
+            writeVarInt(dt.getNano());
+        }
+
+        /**
+         * Пишет билет в компактном виде: числа - varint, перечисления - порядковым номером
+         */
+        void writeTicketRecord(TicketRecord t) {
+            writeVarLong(t.id());
+            writeString(t.name());
+            writeVarInt(t.x());
+            writeVarInt(t.y());
+            writeDateTime(t.creationDate());
+            writeVarInt(t.price());
+            writeByte(t.type().ordinal());
+            writeVarLong(t.venueCapacity());
+            writeByte(t.venueType().ordinal());
+            writeString(t.street());
+            writeString(t.zipCode());
+        }
+
+        int size() {
+            return pos;
+        }
+
+        /**
+         * Очищает буфер, чтобы записывать в него заново
+         */
+        void reset() {
+            pos = 0;
+        }
+
+        /**
+         * @return возвращает записанные байты без копирования. Буфер действует до следующей записи
+         */
+        ByteBuffer buffer() {
+            return ByteBuffer.wrap(buf, 0, pos);
+        }
+
+        byte[] toByteArray() {
+            return Arrays.copyOf(buf, pos);
+        }
+    }
+
+    /**
+     * Чтение двоичного формата. Конструктор с массивом проверяет номер версии
+     */
+    static class Reader {
+        private final ByteBuffer buf;
+
+        Reader(byte[] data) throws IOException {
+            buf = ByteBuffer.wrap(data);
+            if (data.length == 0 || buf.get() != VERSION) throw new IOException("Неподдерживаемая версия формата");
+        }
+
+        /**
+         * Читает с текущей позиции буфера без номера версии, например из отображенного в память файла
+         */
+        Reader(ByteBuffer buf) {
+            this.buf = buf;
+        }
+
+        int readByte() {
+            return buf.get() & 0xFF;
+        }
+
+        /**
+         * @return возвращает число непрочитанных байт
+         */
+        int remaining() {
+            return buf.remaining();
+        }
+
+        int readVarInt() {
+            return (int) readVarLong();
+        }
+
+        long readVarLong() {
+            long zz = 0;
+            for (int shift = 0; ; shift += 7) {
+                if (shift > 63) throw new IllegalArgumentException("Слишком длинное число");
+                byte b = buf.get();
+                zz |= (long) (b & 0x7F) << shift;
+                if (b >= 0) break;
+            }
+            return (zz >>> 1) ^ -(zz & 1);
+        }
+
+        String readString() {
+            int length = readVarInt();
+            if (length < 0 || length > buf.remaining()) throw new IllegalArgumentException("Неверная длина строки");
+            if (!buf.hasArray()) {
+                byte[] bytes = new byte[length];
+                buf.get(bytes);
+                return new String(bytes, StandardCharsets.UTF_8);
+            }
+            String s = new String(buf.array(), buf.arrayOffset() + buf.position(), length, StandardCharsets.UTF_8);
+            buf.position(buf.position() + length);
+            return s;
+        }
+
+        LocalDateTime readDateTime() {
+            return LocalDateTime.ofEpochSecond(readVarLong(), readVarInt(), ZoneOffset.UTC);
+        }
+
+        TicketRecord readTicketRecord() {
+            return new TicketRecord(readVarLong(), readString(), readVarInt(), readVarInt(), readDateTime(), readVarInt(),
+                    TicketType.values()[readByte()], readVarLong(), VenueType.values()[readByte()], readString(), readString());
+        }
+    }
+}
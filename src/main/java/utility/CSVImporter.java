@@ -0,0 +1,186 @@
+package utility;
+
+import ticket.TicketBuilder;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AccessDeniedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+/**
+ * Класс, загружающий билеты из csv-файла на сервере в базу данных и коллекцию (команда import).
+ * <br>Строка файла - один билет: id;name;x;y;price;type;capacity;venue_type;street;zip_code, в том же формате, что и в CSVReaderAndWriter.
+ * id из файла не используется, билеты получают новые id в базе данных. Первое поле можно опустить.
+ * <br>Файл читается потоком частями по {@link CSVImporter#batchSize} строк. Строки части проверяются параллельно правилами {@link TicketBuilder},
+ * верные строки добавляются в базу данных одной транзакцией {@link SQLTickets#addAll} и затем одним изменением в коллекцию.
+ * Строки с ошибками пропускаются. Не чаще раза в {@link CSVImporter#PROGRESS_INTERVAL} мс клиенту отправляется число загруженных строк и скорость.
+ * <br>Загружаются только файлы из каталога {@link CSVImporter#importDir}, имя файла считается относительно него
+ */
+public class CSVImporter {
+    /**
+     * Символ разделения колонок
+     */
+    public static final String SEPARATOR = ";";
+    /**
+     * Период в мс, не чаще которого отправляется сообщение о ходе загрузки. Меньше {@link ServerConnection#TIMEOUT}, поэтому клиент не перестает ждать ответ
+     */
+    public static final long PROGRESS_INTERVAL = 1000;
+    /**
+     * Сколько ошибок в строках перечисляется в итоговом ответе
+     */
+    private static final int MAX_REPORTED_ERRORS = 10;
+
+    /**
+     * Рекорд проверенной строки файла
+     *
+     * @param line  номер строки в файле
+     * @param tb    билет или null, если строка с ошибкой
+     * @param error сообщение об ошибке или null
+     */
+    private record Row(long line, TicketBuilder tb, String error) {
+    }
+
+    private final SQLTickets sqlt;
+    /**
+     * Число строк, которые проверяются и добавляются вместе. Задается системным свойством importBatch
+     */
+    private final int batchSize = Integer.getInteger("importBatch", 1000);
+    /**
+     * Каталог, из которого загружаются файлы. Задается системным свойством importDir, по умолчанию - import в рабочем каталоге сервера
+     */
+    private final Path importDir = Path.of(System.getProperty("importDir", "import")).toAbsolutePath().normalize();
+
+    public CSVImporter(SQLTickets sqlt) {
+        this.sqlt = sqlt;
+    }
+
+    /**
+     * Загружает билеты из файла
+     *
+     * @param fileName имя файла в каталоге {@link CSVImporter#importDir}
+     * @param userName имя владельца билетов
+     * @param out      поток ответа, в который отправляются сообщения о ходе загрузки
+     * @return возвращает итог загрузки: сколько билетов добавлено, сколько строк пропущено и скорость
+     */
+    public Answer importFile(String fileName, String userName, ResponseStream out) throws IOException, SQLException {
+        long start = System.nanoTime(), lastProgress = start;
+        long lineNumber = 0, added = 0, skipped = 0;
+        List<String> errors = new ArrayList<>();
+        try (BufferedReader reader = Files.newBufferedReader(resolve(fileName), StandardCharsets.UTF_8)) {
+            List<String> lines = new ArrayList<>(batchSize);
+            boolean eof = false;
+            while (!eof) {
+                lines.clear();
+                String line;
+                while (lines.size() < batchSize && (line = reader.readLine()) != null) lines.add(line);
+                eof = lines.size() < batchSize;
+                long first = lineNumber + 1;
+                lineNumber += lines.size();
+                Row[] rows = new Row[lines.size()];
+                parseAll(first, lines, rows);
+                List<TicketBuilder> valid = new ArrayList<>(rows.length);
+                for (Row row : rows) {
+                    if (row == null) continue;
+                    if (row.tb() != null) {
+                        valid.add(row.tb());
+                    } else {
+                        skipped++;
+                        if (errors.size() < MAX_REPORTED_ERRORS) errors.add(row.error());
+                    }
+                }
+                if (!valid.isEmpty()) {
+                    String[] resp = sqlt.addAll(valid, userName).split("/");
+                    if (!resp[0].equals("OK")) {
+                        return new Answer(String.format("Загрузка прервана на строках %d-%d: %s%s\nДобавлено билетов - %d", first, lineNumber, resp[0],
+                                resp.length > 1 ? " " + resp[1] : "", added), false);
+                    }
+                    added += valid.size();
+                }
+                long now = System.nanoTime();
+                if (!eof && now - lastProgress >= PROGRESS_INTERVAL * 1_000_000) {
+                    out.appendNow(String.format("Прочитано строк - %d, добавлено билетов - %d, %.0f строк/с\n", lineNumber, added, rate(lineNumber, now - start)));
+                    lastProgress = now;
+                }
+            }
+        } catch (NoSuchFileException e) {
+            return new Answer("Файл " + fileName + " не найден на сервере", false);
+        } catch (AccessDeniedException e) {
+            return new Answer("Файл " + fileName + " находится вне каталога загрузки", false);
+        }
+        long elapsed = System.nanoTime() - start;
+        StringBuilder sb = new StringBuilder(String.format("Загрузка завершена за %.1f с: добавлено билетов - %d, пропущено строк с ошибками - %d, %.0f строк/с",
+                elapsed / 1e9, added, skipped, rate(lineNumber, elapsed)));
+        for (String error : errors) sb.append('\n').append(error);
+        if (skipped > errors.size()) sb.append("\n...");
+        return new Answer(sb.toString(), false);
+    }
+
+    /**
+     * Находит файл в каталоге {@link CSVImporter#importDir}. Путь нормализуется, ссылки раскрываются, поэтому ни "..", ни абсолютный путь,
+     * ни символическая ссылка не выводят за пределы каталога
+     *
+     * @throws AccessDeniedException если файл находится вне каталога
+     * @throws NoSuchFileException   если файла нет
+     */
+    private Path resolve(String fileName) throws IOException {
+        Path file = importDir.resolve(fileName).normalize();
+        if (!file.startsWith(importDir) || !file.toRealPath().startsWith(importDir.toRealPath())) throw new AccessDeniedException(fileName);
+        return file;
+    }
+
+    /**
+     * Проверяет строки части файла. Если у коллекции есть пул параллельных запросов {@link SQLTickets#getQueryPool}, строки проверяются параллельно
+     * задачей этого пула, а не в {@link java.util.concurrent.ForkJoinPool#commonPool}
+     */
+    private void parseAll(long first, List<String> lines, Row[] rows) {
+        ForkJoinPool pool = sqlt.getQueryPool();
+        if (pool == null) {
+            for (int i = 0; i < rows.length; i++) rows[i] = parse(first + i, lines.get(i));
+            return;
+        }
+        pool.submit(() -> IntStream.range(0, rows.length).parallel().forEach(i -> rows[i] = parse(first + i, lines.get(i)))).join();
+    }
+
+    private static double rate(long lines, long nanos) {
+        return nanos == 0 ? 0 : lines * 1e9 / nanos;
+    }
+
+    /**
+     * Проверяет строку файла правилами {@link TicketBuilder}
+     *
+     * @return возвращает проверенную строку или null, если строка пустая
+     */
+    private static Row parse(long line, String str) {
+        if (str.isBlank()) return null;
+        String[] fields = str.trim().split(SEPARATOR, -1);
+        if (fields.length != 9 && fields.length != 10)
+            return new Row(line, null, "Строка " + line + ": ожидалось 9 или 10 полей, получено " + fields.length);
+        int f = fields.length - 9;
+        TicketBuilder tb = new TicketBuilder();
+        String[] names = {"name", "x", "y", "price", "type", "capacity", "venue_type", "street", "zip_code"};
+        for (int i = 0; i < names.length; i++) {
+            String value = fields[f + i].trim();
+            String status = switch (i) {
+                case 0 -> tb.setName(value);
+                case 1 -> tb.setX(value);
+                case 2 -> tb.setY(value);
+                case 3 -> tb.setPrice(value);
+                case 4 -> tb.setType(value);
+                case 5 -> tb.setVenueCapacity(value);
+                case 6 -> tb.setVenueType(value);
+                case 7 -> tb.setAddressStreet(value);
+                default -> tb.setAddressZipCode(value);
+            };
+            if (!status.equals("OK")) return new Row(line, null, "Строка " + line + ", поле " + names[i] + ": " + status);
+        }
+        return new Row(line, tb, null);
+    }
+}
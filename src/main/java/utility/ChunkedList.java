@@ -0,0 +1,552 @@
+package utility;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.function.ToLongFunction;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Неизменяемый список, разбитый на части не длиннее {@link ChunkedList#CHUNK} элементов.
+ * <br>Изменяющие методы не трогают текущий список, а возвращают новый. Новый список копирует только затронутые части и массив ссылок на части,
+ * остальные части у старого и нового списков общие. Поэтому читатель, получивший список, может обходить его сколько угодно долго без блокировок,
+ * а изменение стоит O(n / CHUNK + CHUNK) вместо O(n) у полной копии
+ *
+ * @param <T> тип элементов
+ */
+public final class ChunkedList<T> implements Iterable<T> {
+    /**
+     * Максимальный размер части
+     */
+    public static final int CHUNK = 512;
+    private static final ChunkedList<?> EMPTY = new ChunkedList<>(new Object[0][], new int[0], 0);
+
+    private final Object[][] chunks;
+    /**
+     * Индекс первого элемента каждой части
+     */
+    private final int[] offsets;
+    private final int size;
+
+    private ChunkedList(Object[][] chunks, int[] offsets, int size) {
+        this.chunks = chunks;
+        this.offsets = offsets;
+        this.size = size;
+    }
+
+    @SuppressWarnings("unchecked")
+    public static <T> ChunkedList<T> empty() {
+        return (ChunkedList<T>) EMPTY;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    @SuppressWarnings("unchecked")
+    public T get(int index) {
+        if (index < 0 || index >= size) throw new IndexOutOfBoundsException("Индекс " + index + " при размере " + size);
+        int chunk = chunkOf(index);
+        return (T) chunks[chunk][index - offsets[chunk]];
+    }
+
+    /**
+     * @return возвращает номер части, в которой лежит элемент с указанным индексом
+     */
+    private int chunkOf(int index) {
+        int i = Arrays.binarySearch(offsets, index);
+        return i >= 0 ? i : -i - 2;
+    }
+
+    /**
+     * Ищет элемент по ключу двоичным поиском. Список должен быть упорядочен по возрастанию ключа
+     *
+     * @param key   функция, вычисляющая ключ элемента
+     * @param value искомое значение ключа
+     * @return возвращает индекс элемента или -1, если его нет
+     */
+    @SuppressWarnings("unchecked")
+    public int indexOf(ToLongFunction<? super T> key, long value) {
+        int lo = 0, hi = chunks.length - 1;
+        while (lo < hi) {
+            int mid = (lo + hi + 1) >>> 1;
+            if (key.applyAsLong((T) chunks[mid][0]) <= value) lo = mid;
+            else hi = mid - 1;
+        }
+        if (chunks.length == 0) return -1;
+        Object[] chunk = chunks[lo];
+        int l = 0, h = chunk.length - 1;
+        while (l <= h) {
+            int mid = (l + h) >>> 1;
+            long k = key.applyAsLong((T) chunk[mid]);
+            if (k < value) l = mid + 1;
+            else if (k > value) h = mid - 1;
+            else return offsets[lo] + mid;
+        }
+        return -1;
+    }
+
+    /**
+     * Ищет двоичным поиском первый элемент с ключом не меньше заданного. Список должен быть упорядочен по возрастанию ключа
+     *
+     * @return возвращает индекс элемента или размер списка, если все ключи меньше
+     */
+    @SuppressWarnings("unchecked")
+    public int lowerBound(ToLongFunction<? super T> key, long value) {
+        if (chunks.length == 0 || key.applyAsLong((T) chunks[0][0]) >= value) return 0;
+        int lo = 0, hi = chunks.length - 1;
+        while (lo < hi) {
+            int mid = (lo + hi + 1) >>> 1;
+            if (key.applyAsLong((T) chunks[mid][0]) < value) lo = mid;
+            else hi = mid - 1;
+        }
+        Object[] chunk = chunks[lo];
+        int l = 0, h = chunk.length;
+        while (l < h) {
+            int mid = (l + h) >>> 1;
+            if (key.applyAsLong((T) chunk[mid]) < value) l = mid + 1;
+            else h = mid;
+        }
+        return offsets[lo] + l;
+    }
+
+    /**
+     * Ищет элемент двоичным поиском. Список должен быть упорядочен по возрастанию в порядке comparator
+     *
+     * @return возвращает индекс элемента, равного probe в порядке comparator, или -1, если его нет
+     */
+    public int indexOf(Comparator<? super T> comparator, T probe) {
+        int index = lowerBound(comparator, probe);
+        return index < size && comparator.compare(get(index), probe) == 0 ? index : -1;
+    }
+
+    /**
+     * Ищет двоичным поиском первый элемент, не меньший probe в порядке comparator. Список должен быть упорядочен по возрастанию в этом порядке
+     *
+     * @return возвращает индекс элемента или размер списка, если все элементы меньше
+     */
+    @SuppressWarnings("unchecked")
+    public int lowerBound(Comparator<? super T> comparator, T probe) {
+        if (chunks.length == 0 || comparator.compare((T) chunks[0][0], probe) >= 0) return 0;
+        int lo = 0, hi = chunks.length - 1;
+        while (lo < hi) {
+            int mid = (lo + hi + 1) >>> 1;
+            if (comparator.compare((T) chunks[mid][0], probe) < 0) lo = mid;
+            else hi = mid - 1;
+        }
+        Object[] chunk = chunks[lo];
+        int l = 0, h = chunk.length;
+        while (l < h) {
+            int mid = (l + h) >>> 1;
+            if (comparator.compare((T) chunk[mid], probe) < 0) l = mid + 1;
+            else h = mid;
+        }
+        return offsets[lo] + l;
+    }
+
+    /**
+     * @return возвращает первый элемент или null, если список пуст
+     */
+    @SuppressWarnings("unchecked")
+    public T first() {
+        return size == 0 ? null : (T) chunks[0][0];
+    }
+
+    /**
+     * @return возвращает последний элемент или null, если список пуст
+     */
+    @SuppressWarnings("unchecked")
+    public T last() {
+        if (size == 0) return null;
+        Object[] chunk = chunks[chunks.length - 1];
+        return (T) chunk[chunk.length - 1];
+    }
+
+    /**
+     * @return возвращает копию элементов с индексами от from включительно до to исключительно
+     */
+    @SuppressWarnings("unchecked")
+    public List<T> slice(int from, int to) {
+        if (from < 0 || to > size || from > to) throw new IndexOutOfBoundsException("Диапазон " + from + ".." + to + " при размере " + size);
+        List<T> result = new ArrayList<>(to - from);
+        if (from == to) return result;
+        for (int c = chunkOf(from), pos = from - offsets[c]; result.size() < to - from; c++, pos = 0) {
+            Object[] chunk = chunks[c];
+            int end = Math.min(chunk.length, pos + (to - from - result.size()));
+            for (int i = pos; i < end; i++) result.add((T) chunk[i]);
+        }
+        return result;
+    }
+
+    /**
+     * @return возвращает новый список из результатов функции для каждого элемента с теми же границами частей
+     */
+    @SuppressWarnings("unchecked")
+    public <R> ChunkedList<R> map(Function<? super T, ? extends R> function) {
+        Object[][] newChunks = new Object[chunks.length][];
+        for (int c = 0; c < chunks.length; c++) {
+            Object[] chunk = chunks[c];
+            Object[] mapped = new Object[chunk.length];
+            for (int i = 0; i < chunk.length; i++) mapped[i] = function.apply((T) chunk[i]);
+            newChunks[c] = mapped;
+        }
+        return new ChunkedList<>(newChunks, offsets, size);
+    }
+
+    /**
+     * @return возвращает новый список с элементом, добавленным в конец
+     */
+    public ChunkedList<T> append(T element) {
+        int n = chunks.length;
+        if (n > 0 && chunks[n - 1].length < CHUNK) {
+            Object[][] newChunks = chunks.clone();
+            Object[] last = Arrays.copyOf(chunks[n - 1], chunks[n - 1].length + 1);
+            last[last.length - 1] = element;
+            newChunks[n - 1] = last;
+            return new ChunkedList<>(newChunks, offsets, size + 1);
+        }
+        Object[][] newChunks = Arrays.copyOf(chunks, n + 1);
+        newChunks[n] = new Object[]{element};
+        int[] newOffsets = Arrays.copyOf(offsets, n + 1);
+        newOffsets[n] = size;
+        return new ChunkedList<>(newChunks, newOffsets, size + 1);
+    }
+
+    /**
+     * @return возвращает новый список с элементами, добавленными в конец за O(n / CHUNK + k). Существующие части не копируются
+     */
+    public ChunkedList<T> appendAll(List<? extends T> elements) {
+        if (elements.isEmpty()) return this;
+        int n = chunks.length, added = (elements.size() + CHUNK - 1) / CHUNK;
+        Object[][] newChunks = Arrays.copyOf(chunks, n + added);
+        int[] newOffsets = Arrays.copyOf(offsets, n + added);
+        for (int c = 0; c < added; c++) {
+            int from = c * CHUNK;
+            newChunks[n + c] = elements.subList(from, Math.min(elements.size(), from + CHUNK)).toArray();
+            newOffsets[n + c] = size + from;
+        }
+        return new ChunkedList<>(newChunks, newOffsets, size + elements.size());
+    }
+
+    /**
+     * Вставляет много элементов слиянием за O(n + k) вместо O(k * (n / CHUNK + CHUNK)) у поочередных вставок {@link ChunkedList#insertSorted}.
+     * Новый список собирается из полных частей
+     *
+     * @param comparator порядок, по возрастанию которого упорядочен список
+     * @param sorted     элементы, упорядоченные тем же порядком. Элемент встает после равных ему элементов списка
+     * @return возвращает новый список с элементами
+     */
+    @SuppressWarnings("unchecked")
+    public ChunkedList<T> mergeSorted(Comparator<? super T> comparator, List<? extends T> sorted) {
+        if (sorted.isEmpty()) return this;
+        Object[] merged = new Object[size + sorted.size()];
+        int m = 0, j = 0;
+        for (Object[] chunk : chunks) {
+            for (Object element : chunk) {
+                while (j < sorted.size() && comparator.compare(sorted.get(j), (T) element) < 0) merged[m++] = sorted.get(j++);
+                merged[m++] = element;
+            }
+        }
+        while (j < sorted.size()) merged[m++] = sorted.get(j++);
+        int n = (merged.length + CHUNK - 1) / CHUNK;
+        Object[][] newChunks = new Object[n][];
+        int[] newOffsets = new int[n];
+        for (int c = 0; c < n; c++) {
+            newOffsets[c] = c * CHUNK;
+            newChunks[c] = Arrays.copyOfRange(merged, c * CHUNK, Math.min(merged.length, (c + 1) * CHUNK));
+        }
+        return new ChunkedList<>(newChunks, newOffsets, merged.length);
+    }
+
+    /**
+     * Вставляет элемент в упорядоченный по возрастанию ключа список после всех элементов с тем же или меньшим ключом
+     *
+     * @return возвращает новый список с элементом
+     */
+    @SuppressWarnings("unchecked")
+    public ChunkedList<T> insertSorted(ToLongFunction<? super T> key, T element) {
+        long value = key.applyAsLong(element);
+        int n = chunks.length;
+        if (n == 0 || key.applyAsLong((T) chunks[n - 1][chunks[n - 1].length - 1]) <= value) return append(element);
+        int lo = 0, hi = n - 1;
+        while (lo < hi) {
+            int mid = (lo + hi + 1) >>> 1;
+            if (key.applyAsLong((T) chunks[mid][0]) <= value) lo = mid;
+            else hi = mid - 1;
+        }
+        Object[] chunk = chunks[lo];
+        int l = 0, h = chunk.length;
+        while (l < h) {
+            int mid = (l + h) >>> 1;
+            if (key.applyAsLong((T) chunk[mid]) <= value) l = mid + 1;
+            else h = mid;
+        }
+        return insertAt(lo, l, element);
+    }
+
+    /**
+     * Вставляет элемент в часть c на позицию pos. Переполненная часть делится пополам
+     */
+    private ChunkedList<T> insertAt(int c, int pos, T element) {
+        int n = chunks.length;
+        Object[] chunk = chunks[c];
+        Object[] grown = new Object[chunk.length + 1];
+        System.arraycopy(chunk, 0, grown, 0, pos);
+        grown[pos] = element;
+        System.arraycopy(chunk, pos, grown, pos + 1, chunk.length - pos);
+        if (grown.length <= CHUNK) {
+            Object[][] newChunks = chunks.clone();
+            newChunks[c] = grown;
+            int[] newOffsets = offsets.clone();
+            for (int i = c + 1; i < newOffsets.length; i++) newOffsets[i]++;
+            return new ChunkedList<>(newChunks, newOffsets, size + 1);
+        }
+        Object[][] newChunks = new Object[n + 1][];
+        System.arraycopy(chunks, 0, newChunks, 0, c);
+        newChunks[c] = Arrays.copyOfRange(grown, 0, grown.length / 2);
+        newChunks[c + 1] = Arrays.copyOfRange(grown, grown.length / 2, grown.length);
+        System.arraycopy(chunks, c + 1, newChunks, c + 2, n - c - 1);
+        return rebuild(newChunks);
+    }
+
+    /**
+     * Вставляет элемент в упорядоченный в порядке comparator список после всех элементов, не больших его
+     *
+     * @return возвращает новый список с элементом
+     */
+    @SuppressWarnings("unchecked")
+    public ChunkedList<T> insertSorted(Comparator<? super T> comparator, T element) {
+        int n = chunks.length;
+        if (n == 0 || comparator.compare((T) chunks[n - 1][chunks[n - 1].length - 1], element) <= 0) return append(element);
+        int lo = 0, hi = n - 1;
+        while (lo < hi) {
+            int mid = (lo + hi + 1) >>> 1;
+            if (comparator.compare((T) chunks[mid][0], element) <= 0) lo = mid;
+            else hi = mid - 1;
+        }
+        Object[] chunk = chunks[lo];
+        int l = 0, h = chunk.length;
+        while (l < h) {
+            int mid = (l + h) >>> 1;
+            if (comparator.compare((T) chunk[mid], element) <= 0) l = mid + 1;
+            else h = mid;
+        }
+        return insertAt(lo, l, element);
+    }
+
+    /**
+     * @return возвращает новый список без элемента с указанным индексом
+     */
+    public ChunkedList<T> removeAt(int index) {
+        if (index < 0 || index >= size) throw new IndexOutOfBoundsException("Индекс " + index + " при размере " + size);
+        int c = chunkOf(index);
+        Object[] chunk = chunks[c];
+        int local = index - offsets[c];
+        Object[] reduced = new Object[chunk.length - 1];
+        System.arraycopy(chunk, 0, reduced, 0, local);
+        System.arraycopy(chunk, local + 1, reduced, local, chunk.length - local - 1);
+        Object[][] newChunks = chunks.clone();
+        newChunks[c] = reduced;
+        if (reduced.length == 0) return rebuild(newChunks);
+        int[] newOffsets = offsets.clone();
+        for (int i = c + 1; i < newOffsets.length; i++) newOffsets[i]--;
+        return new ChunkedList<>(newChunks, newOffsets, size - 1);
+    }
+
+    /**
+     * @return возвращает новый список без элементов, удовлетворяющих условию, или этот же список, если таких элементов нет
+     */
+    public ChunkedList<T> removeIf(Predicate<? super T> filter) {
+        Object[][] newChunks = null;
+        for (int c = 0; c < chunks.length; c++) {
+            Object[] kept = filterChunk(chunks[c], filter);
+            if (kept == chunks[c]) continue;
+            if (newChunks == null) newChunks = chunks.clone();
+            newChunks[c] = kept;
+        }
+        return newChunks == null ? this : rebuild(newChunks);
+    }
+
+    /**
+     * @return возвращает часть без элементов, удовлетворяющих условию, или ту же часть, если таких элементов нет
+     */
+    @SuppressWarnings("unchecked")
+    private Object[] filterChunk(Object[] chunk, Predicate<? super T> filter) {
+        Object[] kept = null;
+        int n = 0;
+        for (int i = 0; i < chunk.length; i++) {
+            boolean remove = filter.test((T) chunk[i]);
+            if (remove && kept == null) {
+                kept = new Object[chunk.length - 1];
+                System.arraycopy(chunk, 0, kept, 0, i);
+                n = i;
+            } else if (!remove && kept != null) {
+                kept[n++] = chunk[i];
+            }
+        }
+        return kept == null ? chunk : Arrays.copyOf(kept, n);
+    }
+
+    /**
+     * Выбрасывает пустые части и пересчитывает индексы начала частей
+     */
+    private ChunkedList<T> rebuild(Object[][] newChunks) {
+        int n = 0, total = 0;
+        int[] newOffsets = new int[newChunks.length];
+        for (Object[] chunk : newChunks) {
+            if (chunk.length == 0) continue;
+            newChunks[n] = chunk;
+            newOffsets[n++] = total;
+            total += chunk.length;
+        }
+        if (total == 0) return empty();
+        return new ChunkedList<>(Arrays.copyOf(newChunks, n), Arrays.copyOf(newOffsets, n), total);
+    }
+
+    @Override
+    public Iterator<T> iterator() {
+        return new Iterator<>() {
+            private int chunk = 0, pos = 0;
+
+            @Override
+            public boolean hasNext() {
+                return chunk < chunks.length;
+            }
+
+            @Override
+            @SuppressWarnings("unchecked")
+            public T next() {
+                if (!hasNext()) throw new NoSuchElementException();
+                T element = (T) chunks[chunk][pos];
+                if (++pos == chunks[chunk].length) {
+                    chunk++;
+                    pos = 0;
+                }
+                return element;
+            }
+        };
+    }
+
+    /**
+     * @return возвращает разделитель, который делит список по границам частей и знает точный размер каждой половины
+     */
+    @Override
+    public Spliterator<T> spliterator() {
+        return new ChunkSpliterator(0, chunks.length);
+    }
+
+    /**
+     * @return возвращает поток элементов. Параллельный поток делится по границам частей {@link ChunkedList#spliterator}
+     */
+    public Stream<T> stream() {
+        return StreamSupport.stream(spliterator(), false);
+    }
+
+    /**
+     * @return возвращает параллельный поток элементов
+     */
+    public Stream<T> parallelStream() {
+        return StreamSupport.stream(spliterator(), true);
+    }
+
+    /**
+     * Разделитель частей с номерами от chunk до end. Часть - наименьшая единица деления
+     */
+    private final class ChunkSpliterator implements Spliterator<T> {
+        private int chunk, pos = 0;
+        private final int end;
+
+        ChunkSpliterator(int chunk, int end) {
+            this.chunk = chunk;
+            this.end = end;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public boolean tryAdvance(Consumer<? super T> action) {
+            if (chunk >= end) return false;
+            action.accept((T) chunks[chunk][pos]);
+            if (++pos == chunks[chunk].length) {
+                chunk++;
+                pos = 0;
+            }
+            return true;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public void forEachRemaining(Consumer<? super T> action) {
+            for (; chunk < end; chunk++, pos = 0) {
+                Object[] c = chunks[chunk];
+                for (int i = pos; i < c.length; i++) action.accept((T) c[i]);
+            }
+        }
+
+        @Override
+        public Spliterator<T> trySplit() {
+            if (end - chunk < 2) return null;
+            int mid = (chunk + end) >>> 1;
+            ChunkSpliterator prefix = new ChunkSpliterator(chunk, mid);
+            prefix.pos = pos;
+            chunk = mid;
+            pos = 0;
+            return prefix;
+        }
+
+        @Override
+        public long estimateSize() {
+            if (chunk >= end) return 0;
+            return (end == chunks.length ? size : offsets[end]) - offsets[chunk] - pos;
+        }
+
+        @Override
+        public int characteristics() {
+            return ORDERED | SIZED | SUBSIZED | IMMUTABLE;
+        }
+    }
+
+    /**
+     * @return возвращает неизменяемое представление списка в виде {@link List} без копирования
+     */
+    public List<T> asList() {
+        return new AbstractList<>() {
+            @Override
+            public T get(int index) {
+                return ChunkedList.this.get(index);
+            }
+
+            @Override
+            public int size() {
+                return size;
+            }
+
+            @Override
+            public Iterator<T> iterator() {
+                return ChunkedList.this.iterator();
+            }
+
+            @Override
+            public Stream<T> stream() {
+                return ChunkedList.this.stream();
+            }
+
+            @Override
+            public Spliterator<T> spliterator() {
+                return ChunkedList.this.spliterator();
+            }
+        };
+    }
+}
@@ -1,24 +1,23 @@
 package utility;
 
 import ticket.TicketBuilder;
+import ticket.TicketRecord;
 import ticket.TicketType;
 import ticket.VenueType;
 
 import java.io.*;
 import java.net.ConnectException;
-import java.net.InetSocketAddress;
-import java.nio.ByteBuffer;
-import java.nio.channels.SocketChannel;
 import java.nio.file.AccessDeniedException;
 import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
 import java.util.NoSuchElementException;
 import java.util.Scanner;
 import java.util.Stack;
 import java.util.logging.ConsoleHandler;
 
-import static java.lang.Thread.sleep;
-
 /**
  * Класс клиентского приложения.
  * <br>Читает команды из консоли с помощью класса {@link ConsoleWriter}.
@@ -54,6 +53,30 @@ public class Client {
     private final TicketBuilder tb = new TicketBuilder();
     public String userName;
     public String userPassword;
+    /**
+     * Поле сессии с сервером. Открывается при первой команде, требующей обращения к серверу
+     */
+    private ServerConnection connection;
+    /**
+     * Поле способа кодирования команд. Задается системным свойством codec ("binary" или "serialization"), по умолчанию - binary
+     */
+    private final Codec codec = Codec.forName(System.getProperty("codec", "binary"));
+    /**
+     * Поле команд, накопленных при пакетном исполнении скрипта (execute_script file_name batch). null, если скрипт исполняется построчно
+     */
+    private List<Command> batch = null;
+    /**
+     * Глубина стека сканеров, на которой начато пакетное исполнение. Когда стек становится мельче, пакет отправляется на сервер
+     */
+    private int batchDepth;
+    /**
+     * Поле режима пакета: true - команды с неверными данными пропускаются, false - исполнение файла прерывается на первой ошибке, как при построчном исполнении
+     */
+    private boolean batchContinue;
+    /**
+     * Признак того, что в файле введены неверные данные для создаваемого объекта и команда будет пропущена
+     */
+    private boolean invalidObject = false;
 
     public Client(ConsoleWriter cw) throws IOException {
         this.cw = cw;
@@ -86,6 +109,7 @@ public class Client {
                 }
             }
         }
+        if (batch != null && scannerStack.size() < batchDepth) flushBatch();
     }
 
     /**
@@ -139,6 +163,7 @@ public class Client {
         try {
             if (!checkingCompositeCommands(command)) return;
             if (command[0].equals("sign_in") || command[0].equals("sign_up")) {
+                if (batch != null) flushBatch();
                 cw.println("Введите имя: ");
                 String name;
                 while (true) {
@@ -186,10 +211,6 @@ public class Client {
                     userPassword = null;
                     userName = null;
                     e.printStackTrace();
-                } catch (ClassNotFoundException | InterruptedException e) {
-                    userPassword = null;
-                    userName = null;
-                    throw new RuntimeException(e);
                 }
                 return;
             }
@@ -201,6 +222,7 @@ public class Client {
                 case ("remove_lower"):
                     if (!authorizationVerification())return;
                     tb.clear();
+                    invalidObject = false;
                     cw.println("Введите имя: ");
                     if (!enteringField("name")) return;
                     cw.println("Введите первую координату: ");
@@ -219,6 +241,10 @@ public class Client {
                     if (!enteringField("street")) return;
                     cw.println("Введите почтовый индекс: ");
                     if (!enteringField("zip")) return;
+                    if (invalidObject) {
+                        tb.clear();
+                        break;
+                    }
                     try {
                         communicatingWithServer(command, (byte) 1);
                     } catch (ConnectException e) {
@@ -226,8 +252,6 @@ public class Client {
                         if (cw.getInputStatus() != 0) return;
                     } catch (IOException e) {
                         e.printStackTrace();
-                    } catch (ClassNotFoundException | InterruptedException e) {
-                        throw new RuntimeException(e);
                     }
                     break;
                 case ("info"):
@@ -240,8 +264,10 @@ public class Client {
                 case ("filter_contains_name"):
                 case ("filter_less_than_price"):
                 case ("filter_by_price"):
+                case ("filter_price_between"):
                 case ("count_greater_than_type"):
                 case ("print_field_ascending_type"):
+                case ("import"):
                     if (!authorizationVerification())return;
                     try {
                         communicatingWithServer(command, (byte) 0);
@@ -250,8 +276,6 @@ public class Client {
                         if (cw.getInputStatus() != 0) return;
                     } catch (IOException e) {
                         e.printStackTrace();
-                    } catch (ClassNotFoundException | InterruptedException e) {
-                        throw new RuntimeException(e);
                     }
                     break;
                 case ("help"):
@@ -263,7 +287,8 @@ public class Client {
                             update id {element}: обновить значение элемента коллекции, id которого равен заданному
                             remove_by_id id: удалить элемент из коллекции по его id
                             clear: удаляет все добавленные вами объекты
-                            execute_script file_name: считать и исполнить скрипт из указанного файла. В скрипте содержатся команды в таком же виде, в котором их вводит пользователь в интерактивном режиме.
+                            execute_script file_name [batch|batch_continue]: считать и исполнить скрипт из указанного файла. В скрипте содержатся команды в таком же виде, в котором их вводит пользователь в интерактивном режиме.
+                                batch - отправить все команды скрипта на сервер одним пакетом, исполнение прерывается на первой команде с неверными данными. batch_continue - то же, но такие команды пропускаются
                             exit: завершить программу (без сохранения в файл)
                             remove_first: удалить первый элемент из коллекции
                             add_if_max {element}: добавить новый элемент в коллекцию, если его значение превышает значение наибольшего элемента этой коллекции
@@ -275,7 +300,9 @@ public class Client {
                             remove_lower {element} : удалить из коллекции все элементы, меньшие, чем заданный
                             count_greater_than_type type : вывести количество элементов, значение поля type которых больше заданного
                             filter_by_price price : вывести элементы, значение поля price которых равно заданному
-                            print_field_ascending_type : вывести значения поля type всех элементов в порядке возрастания""");
+                            filter_price_between min max : вывести элементы, значение поля price которых не меньше min и не больше max
+                            print_field_ascending_type : вывести значения поля type всех элементов в порядке возрастания
+                            import file_name : загрузить билеты из csv-файла в каталоге загрузки сервера. Строка файла - id;name;x;y;price;type;capacity;venue_type;street;zip_code, id не используется и может быть опущен""");
                     break;
                 case ("execute_script"):
                     if (!authorizationVerification())return;
@@ -289,8 +316,14 @@ public class Client {
                     scannerStack.add(in);
                     fileNamesStack.add(command[1]);
                     in = new Scanner(Paths.get(command[1]));
+                    if (command.length > 2 && batch == null) {
+                        batch = new ArrayList<>();
+                        batchDepth = scannerStack.size();
+                        batchContinue = command[2].equals("batch_continue");
+                    }
                     break;
                 case ("exit"):
+                    if (batch != null) flushBatch();
                     exit();
                     break;
                 default:
@@ -302,65 +335,90 @@ public class Client {
     }
 
     /**
-     * Подключение к серверу, передача ему команды и прием от него ответа.
-     * <br>Подключение происходит с помощью {@link SocketChannel} в неблокирующем режиме
+     * Передача команды серверу и прием от него ответа.
+     * <br>Все команды передаются через одну сессию {@link ServerConnection}. Если она закрыта, открывается новая
      *
      * @param command исполняемая команда
      * @param mode    1, если команда предполагает создание объекта, 0 - если нет
      */
-    private void communicatingWithServer(String[] command, byte mode) throws IOException, InterruptedException, ClassNotFoundException {
+    private void communicatingWithServer(String[] command, byte mode) throws IOException {
+        Command cmd;
+        if (mode == 1) {
+            if (command[0].equals("update")) tb.setId(Long.parseLong(command[1]));
+            cmd = new Command(command, batch != null ? new TicketBuilder(tb) : tb, userName, userPassword);
+        } else {
+            cmd = new Command(command, userName, userPassword);
+        }
+        cmd.setStructured(true);
+        if (batch != null) {
+            batch.add(cmd);
+            return;
+        }
+        if (connection == null || !connection.isOpen()) connection = new ServerConnection(Server.PORT, codec);
+        Answer answer;
         try {
-            int port = 5465;
-            SocketChannel sock = SocketChannel.open(new InetSocketAddress(port));
-            sock.configureBlocking(false);
-            ByteArrayOutputStream baos = new ByteArrayOutputStream();
-            ObjectOutputStream oos = new ObjectOutputStream(baos);
-            if (mode == 1) {
-                if (command[0].equals("update")) {
-                    tb.setId(Long.parseLong(command[1]));
-                    oos.writeObject(new Command(command, tb, userName, userPassword));
-                } else oos.writeObject(new Command(command, tb, userName, userPassword));
-            } else {
-                oos.writeObject(new Command(command, userName, userPassword));
-            }
-            oos.close();
-            ByteBuffer buf = ByteBuffer.wrap(baos.toByteArray());
-            sock.write(buf);
-            buf.clear();
-            byte[] buffer = new byte[131072];
-            ByteBuffer buff = ByteBuffer.wrap(buffer);
-            ObjectInputStream ois = null;
-            Answer answer;
-            long startTime = System.currentTimeMillis();
-            while (true) {
-                if (System.currentTimeMillis() - startTime > 2000) {
-                    answer = new Answer("Не удалось получить ответ от сервера", false);
-                    break;
-                }
-                sleep(30);
-                try {
-                    sock.read(buff);
-                    ois = new ObjectInputStream(new ByteArrayInputStream(buff.array()));
-                    answer = (Answer) ois.readObject();
-                    break;
-                } catch (StreamCorruptedException ignored) {
-                }
-            }
-            String answerText = answer.text();
-            if (answer.systemInformation()) cw.println(answerText);
-            else cw.printIgnoringPrintStatus(answerText);
-            if (!answerText.equals("Авторизация прошла успешно") && (command[0].equals("sign_up") || command[0].equals("sign_in"))) {
-                userName = null;
-                userPassword = null;
-            }
-            if (ois != null)
-                ois.close();
-            sock.close();
-        } catch (StreamCorruptedException e) {
-            cw.printIgnoringPrintStatus("Не удалось получить ответ от сервера");
+            answer = connection.request(cmd, chunk -> cw.printPartIgnoringPrintStatus(render(chunk, command[0])));
+        } catch (IOException e) {
+            connection.close();
+            connection = null;
+            throw new ConnectException(e.getMessage());
+        }
+        if (answer == null) answer = new Answer("Не удалось получить ответ от сервера", false);
+        String answerText = answer.text();
+        if (answer.systemInformation()) cw.println(answerText);
+        else cw.printIgnoringPrintStatus(render(answer, command[0]));
+        if (!answerText.equals("Авторизация прошла успешно") && (command[0].equals("sign_up") || command[0].equals("sign_in"))) {
+            userName = null;
+            userPassword = null;
         }
     }
 
+    /**
+     * Строит текст ответа. Билеты, присланные в компактном виде {@link Answer#tickets}, выводятся так же, как их выводил бы сервер:
+     * в ответе на show - каждый с новой строки, в ответах на filter_* - подряд
+     *
+     * @param answer  ответ или часть ответа
+     * @param command имя команды, на которую получен ответ
+     */
+    private static String render(Answer answer, String command) {
+        if (answer.tickets().isEmpty()) return answer.text();
+        String separator = command.equals("show") ? "\n" : "";
+        StringBuilder sb = new StringBuilder(answer.text());
+        for (TicketRecord t : answer.tickets()) sb.append(t).append(separator);
+        return sb.toString();
+    }
+
+    /**
+     * Отправляет накопленный пакет команд скрипта на сервер {@link ServerConnection#requestAll} и выводит ответы в порядке команд.
+     * Как и при построчном исполнении скрипта, сообщения об успешном исполнении не выводятся
+     */
+    private void flushBatch() {
+        List<Command> commands = batch;
+        batch = null;
+        if (commands.isEmpty()) return;
+        int answered;
+        try {
+            if (connection == null || !connection.isOpen()) connection = new ServerConnection(Server.PORT, codec);
+            Iterator<Command> order = commands.iterator();
+            String[] current = new String[1];
+            answered = connection.requestAll(commands, chunk -> {
+                if (current[0] == null) current[0] = order.next().getCommand()[0];
+                cw.printPartIgnoringPrintStatus(render(chunk, current[0]));
+            }, answer -> {
+                String name = current[0] != null ? current[0] : order.next().getCommand()[0];
+                current[0] = null;
+                if (!answer.systemInformation()) cw.printIgnoringPrintStatus(render(answer, name));
+            });
+        } catch (IOException e) {
+            if (connection != null) connection.close();
+            connection = null;
+            cw.printIgnoringPrintStatus("Сервер не отвечает");
+            return;
+        }
+        if (answered < commands.size())
+            cw.printIgnoringPrintStatus("Не удалось получить ответ от сервера на " + (commands.size() - answered) + " из " + commands.size() + " команд пакета");
+    }
+
     /**
      * Проверка аргументов команд с аргументами на соответствие требованиям типов данных и т.д.
      *
@@ -407,8 +465,33 @@ public class Client {
                     return false;
                 }
                 break;
+            case ("filter_price_between"):
+                try {
+                    int min = Integer.parseInt(command[1]), max = Integer.parseInt(command[2]);
+                    if (min <= 0 || max <= 0) {
+                        cw.println("Цена должна быть больше 0");
+                        return false;
+                    }
+                    if (min > max) {
+                        cw.println("Нижняя граница цены больше верхней");
+                        return false;
+                    }
+                } catch (NumberFormatException e) {
+                    cw.println("Неверный формат поля price");
+                    return false;
+                } catch (ArrayIndexOutOfBoundsException e) {
+                    cw.println("Вы не ввели границы цены");
+                    return false;
+                }
+                break;
             case ("filter_contains_name"):
                 break;
+            case ("import"):
+                if (command.length < 2) {
+                    cw.println("Вы не ввели имя файла");
+                    return false;
+                }
+                break;
             case ("execute_script"):
                 if (command.length < 2) {
                     cw.println("Вы не ввели имя файла");
@@ -420,6 +503,10 @@ public class Client {
                         return false;
                     }
                 }
+                if (command.length > 2 && !command[2].equals("batch") && !command[2].equals("batch_continue")) {
+                    cw.println("Неверный режим исполнения скрипта. Ожидалось batch или batch_continue");
+                    return false;
+                }
                 File f = new File(command[1]);
                 if (!f.exists()) {
                     cw.println("Неверное имя файла");
@@ -474,6 +561,12 @@ public class Client {
                 default -> "error";
             };
             if (!status.equals("OK")) {
+                if (cw.getInputStatus() == 1 && batch != null && batchContinue) {
+                    if (!invalidObject)
+                        cw.printIgnoringPrintStatus("В файле " + fileNamesStack.peek() + " введены неверные данные для создания объекта, команда пропущена");
+                    invalidObject = true;
+                    return true;
+                }
                 if (cw.getInputStatus() == 1) {
                     cw.printIgnoringPrintStatus("В файле " + fileNamesStack.peek() + " введены неверные данные для создания объекта");
                     fileNamesStack.pop();
@@ -0,0 +1,274 @@
+package utility;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Сессия одного клиента на сервере {@link Server}.
+ * <br>Через одно подключение клиент может прислать сколько угодно команд, каждая из них приходит в отдельном кадре {@link Frame} со своим id.
+ * <br>Хранит очередь еще не записанных кадров и время последней активности клиента, по которому {@link Reactor} закрывает зависшие сессии.
+ * <br>Методы {@link ClientConnection#read} и {@link ClientConnection#write} вызываются только из потока-реактора {@link Reactor}
+ */
+public class ClientConnection {
+    /**
+     * Поле логгера {@link Logger}
+     */
+    private static final Logger logger = LogManager.getLogger(ClientConnection.class);
+    private final SocketChannel channel;
+    private final Reactor reactor;
+    private final SocketAddress address;
+    private SelectionKey key;
+    /**
+     * Максимальный размер кадра команды в байтах. Ограничивает память, которую клиент может занять одним кадром, даже до авторизации
+     */
+    private static final int MAX_COMMAND_SIZE = 1 << 20;
+    private final FrameBuffer input = new FrameBuffer(MAX_COMMAND_SIZE);
+    /**
+     * Очередь кадров, ожидающих записи в канал
+     */
+    private final Queue<ByteBuffer> output = new ConcurrentLinkedQueue<>();
+    /**
+     * Число байт в очереди {@link ClientConnection#output}
+     */
+    private final AtomicLong pendingBytes = new AtomicLong();
+    /**
+     * Число байт в очереди на отправку, после которого потоки, отправляющие части ответа, ждут, пока клиент их прочитает
+     */
+    private static final long MAX_PENDING_BYTES = 1 << 20;
+    /**
+     * Время (System.nanoTime) последнего полученного от клиента кадра или окончания исполнения пакета команд
+     */
+    private volatile long lastActivity = System.nanoTime();
+    /**
+     * Способ кодирования, которым клиент прислал последнюю команду. Тем же способом кодируются ответы
+     */
+    private volatile Codec codec = BinaryCodec.INSTANCE;
+    /**
+     * Очередь пакетных команд {@link Command#isOrdered}, ожидающих исполнения. Доступ под монитором очереди
+     */
+    private final Queue<OrderedRequest> ordered = new ArrayDeque<>();
+    /**
+     * Признак того, что пакетные команды сессии сейчас исполняются. Пока он выставлен, новые пакетные команды только добавляются в очередь
+     */
+    private boolean draining = false;
+    /**
+     * Число пакетных команд в очереди, после которого сессия перестает читать сокет, пока очередь не опустеет наполовину.
+     * Так клиент, присылающий большой пакет, упирается в буфер сокета, а не в память сервера
+     */
+    private static final int MAX_ORDERED = 256;
+    private boolean readingSuspended = false;
+
+    /**
+     * Рекорд пакетной команды, ожидающей исполнения
+     *
+     * @param id       id запроса
+     * @param command  команда
+     * @param received время получения (System.nanoTime)
+     */
+    public record OrderedRequest(long id, Command command, long received) {
+    }
+
+    public ClientConnection(SocketChannel channel, Reactor reactor) throws IOException {
+        this.channel = channel;
+        this.reactor = reactor;
+        this.address = channel.getRemoteAddress();
+    }
+
+    void setKey(SelectionKey key) {
+        this.key = key;
+    }
+
+    public SocketAddress getAddress() {
+        return address;
+    }
+
+    long getLastActivity() {
+        return lastActivity;
+    }
+
+    /**
+     * Читает доступные байты из канала
+     *
+     * @return возвращает false, если клиент закрыл подключение
+     */
+    boolean read() throws IOException {
+        if (input.readFrom(channel) == -1) {
+            close();
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * @return возвращает следующий полностью прочитанный кадр или null, если данных пока недостаточно
+     */
+    Frame nextFrame() throws IOException {
+        Frame frame = input.next();
+        if (frame != null) lastActivity = System.nanoTime();
+        return frame;
+    }
+
+    /**
+     * @return возвращает способ кодирования, которым клиент прислал последнюю команду
+     */
+    public Codec getCodec() {
+        return codec;
+    }
+
+    /**
+     * Восстанавливает объект {@link Command} из кадра с запросом. Способ кодирования определяется по самому кадру {@link Codec#detect}
+     */
+    Command decode(Frame frame) throws IOException {
+        codec = Codec.detect(frame.payload());
+        return codec.decodeCommand(frame.payload());
+    }
+
+    /**
+     * Добавляет пакетную команду в очередь сессии
+     *
+     * @return возвращает true, если очередь не исполнялась и вызывающий должен запустить ее исполнение {@link ClientConnection#pollOrdered}
+     */
+    public boolean offerOrdered(OrderedRequest request) {
+        synchronized (ordered) {
+            ordered.add(request);
+            if (ordered.size() >= MAX_ORDERED && !readingSuspended) {
+                readingSuspended = true;
+                setReading(false);
+            }
+            if (draining) return false;
+            draining = true;
+            return true;
+        }
+    }
+
+    /**
+     * @return возвращает следующую пакетную команду или null, если очередь пуста. В последнем случае исполнение очереди считается законченным
+     */
+    public OrderedRequest pollOrdered() {
+        synchronized (ordered) {
+            OrderedRequest request = ordered.poll();
+            if (request == null) {
+                draining = false;
+                lastActivity = System.nanoTime();
+            }
+            if (readingSuspended && ordered.size() <= MAX_ORDERED / 2) {
+                readingSuspended = false;
+                setReading(true);
+            }
+            return request;
+        }
+    }
+
+    /**
+     * @return возвращает true, если у сессии есть неисполненные пакетные команды. Такая сессия не считается зависшей, даже если клиент молчит
+     */
+    boolean isDraining() {
+        synchronized (ordered) {
+            return draining;
+        }
+    }
+
+    private void setReading(boolean on) {
+        reactor.execute(() -> {
+            try {
+                if (key.isValid()) key.interestOps(on ? key.interestOps() | SelectionKey.OP_READ : key.interestOps() & ~SelectionKey.OP_READ);
+            } catch (CancelledKeyException ignored) {
+            }
+        });
+    }
+
+    /**
+     * Ставит ответ на запрос с указанным id в очередь на отправку. Может вызываться из любого потока
+     *
+     * @param id     id запроса
+     * @param answer объект класса {@link Answer}
+     */
+    public void send(long id, Answer answer) throws IOException {
+        send(new Frame(Frame.RESPONSE, id, codec.encodeAnswer(answer)));
+    }
+
+    /**
+     * Ждет, пока в очереди на отправку станет меньше {@link ClientConnection#MAX_PENDING_BYTES} байт или подключение закроется.
+     * Если клиент не читает ответ дольше {@link Reactor#IDLE_TIMEOUT} мс, сессия закрывается, чтобы не занимать поток обработки
+     *
+     * @throws IOException если очередь не освободилась за {@link Reactor#IDLE_TIMEOUT} мс
+     */
+    public void awaitWritable() throws InterruptedException, IOException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(Reactor.IDLE_TIMEOUT);
+        synchronized (pendingBytes) {
+            while (channel.isOpen() && pendingBytes.get() > MAX_PENDING_BYTES) {
+                long left = deadline - System.nanoTime();
+                if (left <= 0) {
+                    logger.warn(address + " не читает ответ дольше " + Reactor.IDLE_TIMEOUT + " мс, сессия закрыта.");
+                    close();
+                    throw new IOException("Клиент не читает ответ");
+                }
+                pendingBytes.wait(Math.min(100, TimeUnit.NANOSECONDS.toMillis(left) + 1));
+            }
+        }
+    }
+
+    /**
+     * Ставит кадр в очередь на отправку. Может вызываться из любого потока
+     */
+    public void send(Frame frame) {
+        if (!channel.isOpen()) return;
+        ByteBuffer buf = frame.encode();
+        pendingBytes.addAndGet(buf.remaining());
+        output.add(buf);
+        reactor.execute(() -> {
+            try {
+                if (key.isValid()) key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+            } catch (CancelledKeyException ignored) {
+            }
+        });
+    }
+
+    /**
+     * Записывает в канал столько кадров из очереди, сколько примет сокет
+     */
+    void write() throws IOException {
+        ByteBuffer buf;
+        while ((buf = output.peek()) != null) {
+            int n = channel.write(buf);
+            if (n > 0 && pendingBytes.addAndGet(-n) <= MAX_PENDING_BYTES) {
+                synchronized (pendingBytes) {
+                    pendingBytes.notifyAll();
+                }
+            }
+            if (buf.hasRemaining()) return;
+            output.poll();
+        }
+        key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
+    }
+
+    public boolean isOpen() {
+        return channel.isOpen();
+    }
+
+    public void close() {
+        if (!channel.isOpen()) return;
+        key.cancel();
+        try {
+            channel.close();
+        } catch (IOException ignored) {
+        }
+        output.clear();
+        synchronized (pendingBytes) {
+            pendingBytes.notifyAll();
+        }
+        logger.info(address + " отключился.");
+    }
+}
@@ -0,0 +1,40 @@
+package utility;
+
+import java.io.IOException;
+
+/**
+ * Способ кодирования команд {@link Command} и ответов {@link Answer} в полезную нагрузку кадра {@link Frame}.
+ * <br>Сервер определяет способ кодирования по первому байту каждой команды {@link Codec#detect} и отвечает клиенту тем же способом
+ */
+public interface Codec {
+    byte[] encodeCommand(Command command) throws IOException;
+
+    Command decodeCommand(byte[] data) throws IOException;
+
+    byte[] encodeAnswer(Answer answer) throws IOException;
+
+    Answer decodeAnswer(byte[] data) throws IOException;
+
+    /**
+     * Определяет способ кодирования полезной нагрузки. Двоичный формат начинается с номера версии {@link BinaryCodec#VERSION},
+     * а поток Java-сериализации - с магического числа 0xACED
+     *
+     * @param data полезная нагрузка кадра
+     * @return возвращает подходящий способ кодирования
+     */
+    static Codec detect(byte[] data) {
+        return data.length > 0 && data[0] == BinaryCodec.VERSION ? BinaryCodec.INSTANCE : SerializationCodec.INSTANCE;
+    }
+
+    /**
+     * @param name "binary" или "serialization"
+     * @return возвращает способ кодирования с указанным именем
+     */
+    static Codec forName(String name) {
+        return switch (name) {
+            case ("binary") -> BinaryCodec.INSTANCE;
+            case ("serialization") -> SerializationCodec.INSTANCE;
+            default -> throw new IllegalArgumentException("Неизвестный способ кодирования - " + name);
+        };
+    }
+}
@@ -0,0 +1,155 @@
+package utility;
+
+import ticket.*;
+
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Хранилище, которое раскладывает поля билетов по примитивным массивам-столбцам: строка хранилища - один и тот же индекс во всех столбцах.
+ * <br>Строки (название, улица, индекс) кодируются номерами в словаре, поэтому одинаковые строки хранятся один раз.
+ * Дата создания хранится в секундах от начала эпохи, как и выводится. Место назначения всегда имеет те же id и название, что и билет
+ * ({@link TicketBuilder#getTicket}), поэтому они не хранятся отдельно.
+ * <br>Объект {@link Ticket} создается только при обращении {@link ColumnarTicketStore#get}, например при выводе
+ */
+public class ColumnarTicketStore implements TicketStore {
+    /**
+     * Столбцы одного размера. Увеличенная копия публикуется записью в volatile-поле {@link ColumnarTicketStore#columns}
+     */
+    private static final class Columns {
+        final long[] ids;
+        final int[] names;
+        final int[] xs;
+        final int[] ys;
+        final long[] creationDates;
+        final int[] prices;
+        final byte[] types;
+        final long[] capacities;
+        final byte[] venueTypes;
+        final int[] streets;
+        final int[] zipCodes;
+
+        Columns(int capacity) {
+            this(new long[capacity], new int[capacity], new int[capacity], new int[capacity], new long[capacity], new int[capacity],
+                    new byte[capacity], new long[capacity], new byte[capacity], new int[capacity], new int[capacity]);
+        }
+
+        private Columns(long[] ids, int[] names, int[] xs, int[] ys, long[] creationDates, int[] prices, byte[] types, long[] capacities,
+                        byte[] venueTypes, int[] streets, int[] zipCodes) {
+            this.ids = ids;
+            this.names = names;
+            this.xs = xs;
+            this.ys = ys;
+            this.creationDates = creationDates;
+            this.prices = prices;
+            this.types = types;
+            this.capacities = capacities;
+            this.venueTypes = venueTypes;
+            this.streets = streets;
+            this.zipCodes = zipCodes;
+        }
+
+        Columns grow(int capacity) {
+            return new Columns(Arrays.copyOf(ids, capacity), Arrays.copyOf(names, capacity), Arrays.copyOf(xs, capacity), Arrays.copyOf(ys, capacity),
+                    Arrays.copyOf(creationDates, capacity), Arrays.copyOf(prices, capacity), Arrays.copyOf(types, capacity),
+                    Arrays.copyOf(capacities, capacity), Arrays.copyOf(venueTypes, capacity), Arrays.copyOf(streets, capacity),
+                    Arrays.copyOf(zipCodes, capacity));
+        }
+    }
+
+    private static final TicketType[] TICKET_TYPES = TicketType.values();
+    private static final VenueType[] VENUE_TYPES = VenueType.values();
+
+    private volatile Columns columns = new Columns(16);
+    private int rows = 0;
+    /**
+     * Поле словаря: строка по номеру. Публикуется так же, как столбцы
+     */
+    private volatile String[] strings = new String[16];
+    /**
+     * Поле словаря: номер по строке. Используется только при добавлении
+     */
+    private final Map<String, Integer> codes = new HashMap<>();
+
+    @Override
+    public int add(Ticket ticket) {
+        Columns c = columns;
+        if (rows == c.ids.length) columns = c = c.grow(rows * 2);
+        Venue venue = ticket.getVenue();
+        c.ids[rows] = ticket.getId();
+        c.names[rows] = encode(ticket.getName());
+        c.xs[rows] = ticket.getX();
+        c.ys[rows] = ticket.getY();
+        c.creationDates[rows] = ticket.getCreationDate().toEpochSecond(ZoneOffset.UTC);
+        c.prices[rows] = ticket.getPrice();
+        c.types[rows] = (byte) ticket.getType().ordinal();
+        c.capacities[rows] = venue.getCapacity();
+        c.venueTypes[rows] = (byte) venue.getType().ordinal();
+        c.streets[rows] = encode(venue.getAddress().street());
+        c.zipCodes[rows] = encode(venue.getAddress().zipCode());
+        return rows++;
+    }
+
+    /**
+     * @return возвращает номер строки в словаре, добавляя ее при необходимости
+     */
+    private int encode(String str) {
+        Integer code = codes.get(str);
+        if (code != null) return code;
+        String[] s = strings;
+        int next = codes.size();
+        if (next == s.length) strings = s = Arrays.copyOf(s, next * 2);
+        s[next] = str;
+        codes.put(str, next);
+        return next;
+    }
+
+    @Override
+    public Ticket get(int row) {
+        Columns c = columns;
+        String[] s = strings;
+        long id = c.ids[row];
+        String name = s[c.names[row]];
+        return new Ticket(id, name, new Coordinates(c.xs[row], c.ys[row]), LocalDateTime.ofEpochSecond(c.creationDates[row], 0, ZoneOffset.UTC),
+                c.prices[row], TICKET_TYPES[c.types[row]],
+                new Venue(id, name, c.capacities[row], VENUE_TYPES[c.venueTypes[row]], new Address(s[c.streets[row]], s[c.zipCodes[row]])));
+    }
+
+    @Override
+    public long id(int row) {
+        return columns.ids[row];
+    }
+
+    @Override
+    public String name(int row) {
+        return strings[columns.names[row]];
+    }
+
+    @Override
+    public int price(int row) {
+        return columns.prices[row];
+    }
+
+    @Override
+    public TicketType type(int row) {
+        return TICKET_TYPES[columns.types[row]];
+    }
+
+    @Override
+    public long capacity(int row) {
+        return columns.capacities[row];
+    }
+
+    @Override
+    public int rows() {
+        return rows;
+    }
+
+    @Override
+    public TicketStore empty() {
+        return new ColumnarTicketStore();
+    }
+}
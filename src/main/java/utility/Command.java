@@ -18,6 +18,19 @@ public class Command implements Serializable {
     private final String[] command;
     public final String name;
     public final String password;
+    /**
+     * Поле времени в мс, которое клиент ждет ответа. Если команда пролежала в очереди сервера дольше, она не исполняется.
+     * 0 - время ожидания не ограничено
+     */
+    private long timeout = 0;
+    /**
+     * Поле признака пакетной команды. Пакетные команды одной сессии сервер исполняет строго в порядке получения
+     */
+    private boolean ordered = false;
+    /**
+     * Поле признака того, что билеты в ответе нужно прислать в компактном виде {@link Answer#tickets}, а не текстом
+     */
+    private boolean structured = false;
 
     public Command(String[] command, TicketBuilder tb, String name, String password) {
         this.name = name;
@@ -47,4 +60,28 @@ public class Command implements Serializable {
     public String getPassword() {
         return password;
     }
+
+    public long getTimeout() {
+        return timeout;
+    }
+
+    public void setTimeout(long timeout) {
+        this.timeout = timeout;
+    }
+
+    public boolean isOrdered() {
+        return ordered;
+    }
+
+    public void setOrdered(boolean ordered) {
+        this.ordered = ordered;
+    }
+
+    public boolean isStructured() {
+        return structured;
+    }
+
+    public void setStructured(boolean structured) {
+        this.structured = structured;
+    }
 }
@@ -0,0 +1,248 @@
+package utility;
+
+import java.io.Closeable;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Properties;
+
+/**
+ * Ограниченный пул соединений с базой данных. Команда берет соединение {@link ConnectionPool#borrow} на время своей транзакции
+ * и возвращает его закрытием {@link Lease}, поэтому транзакции разных команд идут в разных соединениях и не смешиваются.
+ * <br>Открыто не больше {@link ConnectionPool#maxSize} соединений. Если все заняты, borrow ждет освободившееся не дольше {@link ConnectionPool#borrowTimeout} мс.
+ * <br>Соединения выдаются в порядке, обратном возврату. Соединение, простоявшее дольше {@link ConnectionPool#VALIDATION_INTERVAL} мс,
+ * перед выдачей проверяется {@link Connection#isValid}. При возврате незавершенная транзакция откатывается.
+ * Фоновый поток закрывает соединения, простаивающие дольше {@link ConnectionPool#idleTimeout} мс
+ */
+public class ConnectionPool implements Closeable {
+    /**
+     * Время простоя в мс, после которого соединение проверяется перед выдачей
+     */
+    public static final long VALIDATION_INTERVAL = 5000;
+    /**
+     * Время в секундах, которое ждет проверка соединения
+     */
+    private static final int VALIDATION_TIMEOUT = 2;
+
+    /**
+     * Рекорд свободного соединения
+     *
+     * @param connection соединение
+     * @param since      время возврата в пул (System.currentTimeMillis)
+     */
+    private record Idle(Connection connection, long since) {
+    }
+
+    /**
+     * Соединение, взятое из пула. Закрытие возвращает соединение в пул, само соединение остается открытым
+     */
+    public final class Lease implements AutoCloseable {
+        private final Connection connection;
+        private boolean returned = false;
+
+        private Lease(Connection connection) {
+            this.connection = connection;
+        }
+
+        public Connection connection() {
+            return connection;
+        }
+
+        @Override
+        public void close() {
+            if (returned) return;
+            returned = true;
+            release(connection);
+        }
+    }
+
+    private final String url;
+    private final Properties info;
+    private final int maxSize;
+    private final long borrowTimeout;
+    private final long idleTimeout;
+    /**
+     * Свободные соединения. В начале - возвращенные последними
+     */
+    private final Deque<Idle> idle = new ArrayDeque<>();
+    /**
+     * Число открытых соединений: свободных, выданных и открываемых
+     */
+    private int open = 0;
+    private boolean closed = false;
+    private final Thread evictor;
+
+    /**
+     * @param url           адрес базы данных
+     * @param info          свойства подключения (пользователь и пароль)
+     * @param maxSize       наибольшее число открытых соединений
+     * @param borrowTimeout время в мс, которое {@link ConnectionPool#borrow} ждет освободившееся соединение
+     * @param idleTimeout   время простоя в мс, после которого свободное соединение закрывается
+     */
+    public ConnectionPool(String url, Properties info, int maxSize, long borrowTimeout, long idleTimeout) {
+        this.url = url;
+        this.info = info;
+        this.maxSize = maxSize;
+        this.borrowTimeout = borrowTimeout;
+        this.idleTimeout = idleTimeout;
+        evictor = new Thread(this::evictLoop, "connection-evictor");
+        evictor.setDaemon(true);
+        evictor.start();
+    }
+
+    /**
+     * Создает пул соединений с базой studs. Пользователь и пароль берутся из файла db.cfg. Размер пула задается системным свойством dbPoolSize
+     * (по умолчанию 10 - по числу потоков исполнения команд сервера), время ожидания соединения и время простоя в мс - dbBorrowTimeout и dbIdleTimeout
+     */
+    public static ConnectionPool fromConfig() throws IOException {
+        Properties info = new Properties();
+        try (FileInputStream in = new FileInputStream("db.cfg")) {
+            info.load(in);
+        }
+        return new ConnectionPool("jdbc:postgresql://pg:5432/studs", info, Integer.getInteger("dbPoolSize", 10),
+                Long.getLong("dbBorrowTimeout", 5000), Long.getLong("dbIdleTimeout", 60000));
+    }
+
+    /**
+     * Выдает свободное соединение или открывает новое, если открыто меньше {@link ConnectionPool#maxSize}. Соединение выдается без автофиксации
+     *
+     * @return возвращает соединение, которое нужно вернуть в пул закрытием
+     * @throws SQLTimeoutException если соединение не освободилось за {@link ConnectionPool#borrowTimeout} мс
+     */
+    public Lease borrow() throws SQLException {
+        long deadline = System.currentTimeMillis() + borrowTimeout;
+        while (true) {
+            Idle candidate;
+            synchronized (this) {
+                while (true) {
+                    if (closed) throw new SQLException("Пул соединений закрыт");
+                    candidate = idle.pollFirst();
+                    if (candidate != null) break;
+                    if (open < maxSize) {
+                        open++;
+                        break;
+                    }
+                    long wait = deadline - System.currentTimeMillis();
+                    if (wait <= 0) throw new SQLTimeoutException("Все " + maxSize + " соединений с базой данных заняты");
+                    try {
+                        wait(wait);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new SQLException("Ожидание соединения с базой данных прервано");
+                    }
+                }
+            }
+            if (candidate == null) return new Lease(connect());
+            if (System.currentTimeMillis() - candidate.since() < VALIDATION_INTERVAL || isValid(candidate.connection()))
+                return new Lease(candidate.connection());
+            discard(candidate.connection());
+        }
+    }
+
+    /**
+     * Открывает новое соединение. Место под него уже учтено в {@link ConnectionPool#open}, при ошибке оно освобождается
+     */
+    private Connection connect() throws SQLException {
+        try {
+            Connection connection = DriverManager.getConnection(url, info);
+            connection.setAutoCommit(false);
+            return connection;
+        } catch (SQLException | RuntimeException e) {
+            discard(null);
+            throw e;
+        }
+    }
+
+    private static boolean isValid(Connection connection) {
+        try {
+            return connection.isValid(VALIDATION_TIMEOUT);
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Возвращает соединение в пул, откатив незавершенную транзакцию. Закрытое или сломанное соединение закрывается и освобождает место
+     */
+    private void release(Connection connection) {
+        try {
+            if (!connection.isClosed()) {
+                connection.rollback();
+                synchronized (this) {
+                    if (!closed) {
+                        idle.addFirst(new Idle(connection, System.currentTimeMillis()));
+                        notify();
+                        return;
+                    }
+                }
+            }
+        } catch (SQLException ignored) {
+        }
+        discard(connection);
+    }
+
+    /**
+     * Закрывает соединение, если оно передано, и освобождает его место в пуле
+     */
+    private void discard(Connection connection) {
+        if (connection != null) {
+            try {
+                connection.close();
+            } catch (SQLException ignored) {
+            }
+        }
+        synchronized (this) {
+            open--;
+            notify();
+        }
+    }
+
+    /**
+     * Закрывает соединения, простаивающие дольше {@link ConnectionPool#idleTimeout} мс. Самые старые лежат в конце {@link ConnectionPool#idle}
+     */
+    private void evictLoop() {
+        try {
+            while (true) {
+                Thread.sleep(Math.max(1000, idleTimeout / 4));
+                List<Connection> expired = new ArrayList<>();
+                synchronized (this) {
+                    if (closed) return;
+                    long now = System.currentTimeMillis();
+                    while (!idle.isEmpty() && now - idle.peekLast().since() >= idleTimeout) expired.add(idle.pollLast().connection());
+                }
+                for (Connection connection : expired) discard(connection);
+            }
+        } catch (InterruptedException ignored) {
+        }
+    }
+
+    /**
+     * @return возвращает число открытых соединений
+     */
+    public synchronized int getOpen() {
+        return open;
+    }
+
+    /**
+     * Закрывает свободные соединения. Выданные соединения закрываются при возврате
+     */
+    @Override
+    public void close() {
+        List<Idle> left;
+        synchronized (this) {
+            closed = true;
+            left = new ArrayList<>(idle);
+            idle.clear();
+            notifyAll();
+        }
+        evictor.interrupt();
+        for (Idle i : left) discard(i.connection());
+    }
+}
@@ -43,4 +43,13 @@ public class ConsoleWriter {
     public void printIgnoringPrintStatus(String str) {
         System.out.println(str);
     }
+
+    /**
+     * Печатает переданную строку с помощью System.out.print(String), не добавляя перевод строки. Используется для вывода частей ответа сервера
+     *
+     * @param str строка, которую необходимо напечатать
+     */
+    public void printPartIgnoringPrintStatus(String str) {
+        System.out.print(str);
+    }
 }
@@ -0,0 +1,50 @@
+package utility;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Рекорд кадра протокола обмена между клиентом и сервером.
+ * <br>На проводе кадр имеет вид: длина (int, без учета самого поля длины), тип (byte), id запроса (long), полезная нагрузка.
+ * <br>По id клиент сопоставляет ответ с запросом, поэтому ответы могут приходить в любом порядке
+ *
+ * @param type    тип кадра
+ * @param id      id запроса, к которому относится кадр
+ * @param payload полезная нагрузка
+ */
+public record Frame(byte type, long id, byte[] payload) {
+    /**
+     * Кадр с командой {@link Command}
+     */
+    public static final byte REQUEST = 1;
+    /**
+     * Кадр с ответом {@link Answer}
+     */
+    public static final byte RESPONSE = 2;
+    /**
+     * Кадр с частью ответа {@link Answer}. Части приходят до кадра {@link Frame#RESPONSE} с тем же id, который завершает ответ
+     */
+    public static final byte CHUNK = 5;
+    /**
+     * Проверка того, что собеседник жив. На него отвечают кадром {@link Frame#PONG} с тем же id
+     */
+    public static final byte PING = 3;
+    public static final byte PONG = 4;
+    /**
+     * Размер заголовка кадра без поля длины (тип и id)
+     */
+    public static final int HEADER = 9;
+    private static final byte[] EMPTY = new byte[0];
+
+    public Frame(byte type, long id) {
+        this(type, id, EMPTY);
+    }
+
+    /**
+     * @return возвращает буфер, готовый к записи в канал
+     */
+    public ByteBuffer encode() {
+        ByteBuffer buf = ByteBuffer.allocate(4 + HEADER + payload.length);
+        buf.putInt(HEADER + payload.length).put(type).putLong(id).put(payload);
+        return buf.flip();
+    }
+}
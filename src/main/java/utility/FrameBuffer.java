@@ -0,0 +1,84 @@
+package utility;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+
+/**
+ * Буфер, накапливающий байты из канала и нарезающий их на кадры {@link Frame}.
+ * <br>Растет до размера принимаемого кадра, но не больше предела, заданного при создании. После того как большой кадр прочитан,
+ * буфер снова уменьшается до начального размера, поэтому один большой кадр не занимает память до конца сессии
+ */
+public class FrameBuffer {
+    /**
+     * Максимальный размер кадра ответа в байтах, с которым клиент создает свой буфер {@link ServerConnection}
+     */
+    public static final int MAX_FRAME = 64 << 20;
+    /**
+     * Начальный размер буфера в байтах
+     */
+    private static final int INITIAL = 16384;
+    /**
+     * Максимальный размер кадра в байтах. Кадры большего размера считаются ошибкой протокола
+     */
+    private final int maxFrame;
+    /**
+     * Буфер в режиме записи
+     */
+    private ByteBuffer buffer = ByteBuffer.allocate(INITIAL);
+    /**
+     * Размер, до которого нужно увеличить буфер, чтобы в него поместился следующий кадр целиком
+     */
+    private int required = 0;
+
+    /**
+     * @param maxFrame максимальный размер принимаемого кадра в байтах
+     */
+    public FrameBuffer(int maxFrame) {
+        this.maxFrame = maxFrame;
+    }
+
+    /**
+     * Читает доступные байты из канала
+     *
+     * @return возвращает количество прочитанных байт или -1, если канал закрыт собеседником
+     */
+    public int readFrom(ReadableByteChannel channel) throws IOException {
+        if (buffer.capacity() < required || !buffer.hasRemaining()) {
+            ByteBuffer bigger = ByteBuffer.allocate(Math.max(required, buffer.capacity() * 2));
+            buffer.flip();
+            bigger.put(buffer);
+            buffer = bigger;
+        }
+        return channel.read(buffer);
+    }
+
+    /**
+     * @return возвращает следующий полностью прочитанный кадр или null, если данных пока недостаточно
+     */
+    public Frame next() throws IOException {
+        buffer.flip();
+        try {
+            if (buffer.remaining() < 4) return null;
+            int length = buffer.getInt(buffer.position());
+            if (length < Frame.HEADER || length > maxFrame) throw new IOException("Неверная длина кадра - " + length);
+            if (buffer.remaining() < 4 + length) {
+                required = 4 + length;
+                return null;
+            }
+            buffer.getInt();
+            byte type = buffer.get();
+            long id = buffer.getLong();
+            byte[] payload = new byte[length - Frame.HEADER];
+            buffer.get(payload);
+            required = 0;
+            return new Frame(type, id, payload);
+        } finally {
+            buffer.compact();
+            if (buffer.capacity() > INITIAL && required == 0 && buffer.position() <= INITIAL) {
+                buffer.flip();
+                buffer = ByteBuffer.allocate(INITIAL).put(buffer);
+            }
+        }
+    }
+}
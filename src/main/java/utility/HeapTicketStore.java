@@ -0,0 +1,66 @@
+package utility;
+
+import ticket.Ticket;
+import ticket.TicketType;
+
+import java.util.Arrays;
+
+/**
+ * Хранилище, которое держит сами объекты {@link Ticket} в куче. Билет возвращается без копирования
+ */
+public class HeapTicketStore implements TicketStore {
+    /**
+     * Поле массива строк. Увеличенная копия публикуется записью в volatile-поле, поэтому читатель всегда видит массив целиком.
+     * Строка, добавленная до публикации снимка, видна читателю этого снимка в любой копии массива
+     */
+    private volatile Ticket[] tickets = new Ticket[16];
+    private int rows = 0;
+
+    @Override
+    public int add(Ticket ticket) {
+        Ticket[] t = tickets;
+        if (rows == t.length) tickets = t = Arrays.copyOf(t, rows * 2);
+        t[rows] = ticket;
+        return rows++;
+    }
+
+    @Override
+    public Ticket get(int row) {
+        return tickets[row];
+    }
+
+    @Override
+    public long id(int row) {
+        return tickets[row].getId();
+    }
+
+    @Override
+    public String name(int row) {
+        return tickets[row].getName();
+    }
+
+    @Override
+    public int price(int row) {
+        return tickets[row].getPrice();
+    }
+
+    @Override
+    public TicketType type(int row) {
+        return tickets[row].getType();
+    }
+
+    @Override
+    public long capacity(int row) {
+        return tickets[row].getVenue().getCapacity();
+    }
+
+    @Override
+    public int rows() {
+        return rows;
+    }
+
+    @Override
+    public TicketStore empty() {
+        return new HeapTicketStore();
+    }
+}
@@ -0,0 +1,161 @@
+package utility;
+
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * Хеш-таблица с открытой адресацией из long в long без упаковки ключей в {@link Long}.
+ * <br>Ключи и значения лежат в одном массиве парами, коллизии разрешаются линейным пробированием, а при удалении следующие элементы цепочки
+ * сдвигаются назад, поэтому удаленных ячеек-маркеров не бывает.
+ * <br>Изменения выполняются под блокировкой записи {@link StampedLock}, а чтение - оптимистично без блокировки: если во время чтения таблица
+ * изменилась, чтение повторяется под блокировкой чтения
+ */
+public class LongIndex {
+    /**
+     * Возвращается {@link LongIndex#get} и {@link LongIndex#remove}, если ключа нет. Значения должны быть неотрицательными
+     */
+    public static final long MISSING = -1;
+    /**
+     * Ключ пустой ячейки. Такой ключ нельзя добавить в таблицу
+     */
+    private static final long FREE = Long.MIN_VALUE;
+    private static final int MIN_CAPACITY = 16;
+
+    /**
+     * Пары ключ-значение: ключ в ячейке 2i, значение в ячейке 2i + 1
+     */
+    private volatile long[] table = newTable(MIN_CAPACITY);
+    private int size = 0;
+    private final StampedLock lock = new StampedLock();
+
+    private static long[] newTable(int capacity) {
+        long[] table = new long[capacity * 2];
+        for (int i = 0; i < table.length; i += 2) table[i] = FREE;
+        return table;
+    }
+
+    /**
+     * @return возвращает номер пары, с которой начинается поиск ключа
+     */
+    private static int slot(long key, int mask) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32)) & mask;
+    }
+
+    /**
+     * @return возвращает значение по ключу или {@link LongIndex#MISSING}
+     */
+    public long get(long key) {
+        long stamp = lock.tryOptimisticRead();
+        long value = find(table, key);
+        if (lock.validate(stamp)) return value;
+        stamp = lock.readLock();
+        try {
+            return find(table, key);
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    public boolean contains(long key) {
+        return get(key) != MISSING;
+    }
+
+    private static long find(long[] t, long key) {
+        int mask = t.length / 2 - 1;
+        for (int i = slot(key, mask), probes = 0; probes <= mask; i = (i + 1) & mask, probes++) {
+            long k = t[2 * i];
+            if (k == key) return t[2 * i + 1];
+            if (k == FREE) return MISSING;
+        }
+        return MISSING;
+    }
+
+    /**
+     * Добавляет или заменяет значение по ключу
+     *
+     * @param value неотрицательное значение
+     */
+    public void put(long key, long value) {
+        if (key == FREE) throw new IllegalArgumentException("Недопустимый ключ - " + key);
+        long stamp = lock.writeLock();
+        try {
+            if ((size + 1) * 4L > table.length / 2 * 3L) table = rehash(table, table.length);
+            if (insert(table, key, value)) size++;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * @return возвращает true, если ключа еще не было
+     */
+    private static boolean insert(long[] t, long key, long value) {
+        int mask = t.length / 2 - 1;
+        for (int i = slot(key, mask); ; i = (i + 1) & mask) {
+            long k = t[2 * i];
+            if (k == key || k == FREE) {
+                t[2 * i] = key;
+                t[2 * i + 1] = value;
+                return k == FREE;
+            }
+        }
+    }
+
+    private static long[] rehash(long[] old, int length) {
+        long[] t = newTable(length);
+        for (int i = 0; i < old.length; i += 2) if (old[i] != FREE) insert(t, old[i], old[i + 1]);
+        return t;
+    }
+
+    /**
+     * Удаляет ключ
+     *
+     * @return возвращает значение удаленного ключа или {@link LongIndex#MISSING}
+     */
+    public long remove(long key) {
+        long stamp = lock.writeLock();
+        try {
+            long[] t = table;
+            int mask = t.length / 2 - 1;
+            int i = slot(key, mask);
+            while (t[2 * i] != key) {
+                if (t[2 * i] == FREE) return MISSING;
+                i = (i + 1) & mask;
+            }
+            long value = t[2 * i + 1];
+            // Сдвигаем назад элементы цепочки, которые иначе стали бы недостижимы из своей начальной ячейки
+            for (int j = (i + 1) & mask; t[2 * j] != FREE; j = (j + 1) & mask) {
+                int home = slot(t[2 * j], mask);
+                if (((j - home) & mask) >= ((j - i) & mask)) {
+                    t[2 * i] = t[2 * j];
+                    t[2 * i + 1] = t[2 * j + 1];
+                    i = j;
+                }
+            }
+            t[2 * i] = FREE;
+            size--;
+            return value;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    public void clear() {
+        long stamp = lock.writeLock();
+        try {
+            table = newTable(MIN_CAPACITY);
+            size = 0;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    public int size() {
+        long stamp = lock.readLock();
+        try {
+            return size;
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+}
@@ -0,0 +1,314 @@
+package utility;
+
+import ticket.*;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.Arrays;
+
+/**
+ * Хранилище, которое держит билеты вне кучи в отображенных в память файлах {@link FileChannel#map}.
+ * <br>Файл записей (tickets-N.rec) состоит из заголовка и записей фиксированной длины {@link MappedTicketStore#RECORD}, номер строки - номер записи.
+ * Строки (название, улица, индекс) дописываются в файл строк (tickets-N.str) длиной и байтами UTF-8, запись хранит их смещения.
+ * Файлы отображаются частями по {@link MappedTicketStore#SEGMENT} байт, поэтому размер хранилища не ограничен размером одного отображения.
+ * <br>Методы чтения полей берут значения прямо из отображения без создания объектов, объект {@link Ticket} создается только {@link MappedTicketStore#get}.
+ * <br>Удаленные строки помечаются в записи {@link MappedTicketStore#release}. При штатном закрытии {@link MappedTicketStore#close} в заголовок пишется
+ * признак целостности и метка журнала изменений базы данных, и при следующем запуске неудаленные строки возвращаются {@link MappedTicketStore#recovered}:
+ * из базы данных дочитываются только билеты, измененные после метки.
+ * Если сервер был остановлен аварийно, файлы начинаются заново.
+ * <br>Новое хранилище {@link MappedTicketStore#empty} пишет в файлы следующего поколения, а файлы старого удаляются: отображение остается доступным
+ * снимкам, которые еще на него ссылаются
+ */
+public class MappedTicketStore implements TicketStore {
+    /**
+     * Размер части отображения в байтах
+     */
+    public static final int SEGMENT = 64 << 20;
+    /**
+     * Размер записи в байтах
+     */
+    public static final int RECORD = 64;
+    private static final int HEADER = 64;
+    private static final int MAGIC = 0x54494B31;
+    private static final int ROWS_PER_SEGMENT = SEGMENT / RECORD;
+
+    // Смещения полей в заголовке
+    private static final int H_MAGIC = 0, H_RECORD = 4, H_ROWS = 8, H_CLEAN = 12, H_STRINGS_END = 16, H_MARK = 24;
+    // Смещения полей в записи
+    private static final int ID = 0, X = 8, Y = 12, CREATION_DATE = 16, PRICE = 24, TYPE = 28, VENUE_TYPE = 29, DELETED = 30,
+            CAPACITY = 32, NAME = 40, STREET = 48, ZIP_CODE = 56;
+
+    private static final TicketType[] TICKET_TYPES = TicketType.values();
+    private static final VenueType[] VENUE_TYPES = VenueType.values();
+
+    private final Path dir;
+    private final int generation;
+    private final FileChannel records;
+    private final FileChannel strings;
+    private final MappedByteBuffer header;
+    /**
+     * Части отображения записей и строк. Увеличенная копия массива публикуется записью в volatile-поле
+     */
+    private volatile MappedByteBuffer[] recordSegments = new MappedByteBuffer[0];
+    private volatile MappedByteBuffer[] stringSegments = new MappedByteBuffer[0];
+    private int rows;
+    private long stringsEnd;
+    private final int[] recovered;
+    private final long recoveredMark;
+
+    /**
+     * Открывает хранилище последнего поколения в каталоге. Файлы остальных поколений удаляются
+     *
+     * @param dir каталог файлов хранилища
+     */
+    public MappedTicketStore(Path dir) {
+        this(dir, latestGeneration(dir), true);
+    }
+
+    private MappedTicketStore(Path dir, int generation, boolean recover) {
+        this.dir = dir;
+        this.generation = generation;
+        try {
+            Files.createDirectories(dir);
+            removeOtherGenerations();
+            records = FileChannel.open(file("rec"), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            strings = FileChannel.open(file("str"), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            header = records.map(FileChannel.MapMode.READ_WRITE, 0, HEADER);
+            boolean clean = recover && header.getInt(H_MAGIC) == MAGIC && header.getInt(H_RECORD) == RECORD && header.getInt(H_CLEAN) == 1;
+            rows = clean ? header.getInt(H_ROWS) : 0;
+            stringsEnd = clean ? header.getLong(H_STRINGS_END) : 0;
+            recoveredMark = clean ? header.getLong(H_MARK) : -1;
+            header.putInt(H_MAGIC, MAGIC).putInt(H_RECORD, RECORD).putInt(H_ROWS, rows).putInt(H_CLEAN, 0).putLong(H_STRINGS_END, stringsEnd)
+                    .putLong(H_MARK, -1);
+            header.force();
+            ensureRecordSegments(rows);
+            ensureStringSegments(stringsEnd);
+            recovered = liveRows();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Не удалось открыть файлы хранилища в " + dir, e);
+        }
+    }
+
+    private Path file(String extension) {
+        return dir.resolve("tickets-" + generation + "." + extension);
+    }
+
+    private static int latestGeneration(Path dir) {
+        int latest = 0;
+        if (!Files.isDirectory(dir)) return latest;
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, "tickets-*.rec")) {
+            for (Path f : files) {
+                String name = f.getFileName().toString();
+                try {
+                    latest = Math.max(latest, Integer.parseInt(name.substring("tickets-".length(), name.length() - ".rec".length())));
+                } catch (NumberFormatException ignored) {
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return latest;
+    }
+
+    private void removeOtherGenerations() throws IOException {
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, "tickets-*.{rec,str}")) {
+            for (Path f : files) {
+                String name = f.getFileName().toString();
+                if (name.startsWith("tickets-" + generation + ".")) continue;
+                try {
+                    Files.deleteIfExists(f);
+                } catch (IOException ignored) {
+                    // Файл еще отображен в память и не может быть удален на этой системе, его удалит следующий запуск
+                }
+            }
+        }
+    }
+
+    private int[] liveRows() {
+        int[] live = new int[rows];
+        int n = 0;
+        for (int row = 0; row < rows; row++) if (record(row).get(offset(row) + DELETED) == 0) live[n++] = row;
+        return Arrays.copyOf(live, n);
+    }
+
+    private void ensureRecordSegments(int rowCount) throws IOException {
+        MappedByteBuffer[] segments = recordSegments;
+        int needed = rowCount / ROWS_PER_SEGMENT + 1;
+        if (segments.length >= needed) return;
+        MappedByteBuffer[] grown = Arrays.copyOf(segments, needed);
+        for (int i = segments.length; i < needed; i++)
+            grown[i] = records.map(FileChannel.MapMode.READ_WRITE, HEADER + (long) i * SEGMENT, SEGMENT);
+        recordSegments = grown;
+    }
+
+    private void ensureStringSegments(long end) throws IOException {
+        MappedByteBuffer[] segments = stringSegments;
+        int needed = (int) (end / SEGMENT) + 1;
+        if (segments.length >= needed) return;
+        MappedByteBuffer[] grown = Arrays.copyOf(segments, needed);
+        for (int i = segments.length; i < needed; i++)
+            grown[i] = strings.map(FileChannel.MapMode.READ_WRITE, (long) i * SEGMENT, SEGMENT);
+        stringSegments = grown;
+    }
+
+    private MappedByteBuffer record(int row) {
+        return recordSegments[row / ROWS_PER_SEGMENT];
+    }
+
+    private static int offset(int row) {
+        return row % ROWS_PER_SEGMENT * RECORD;
+    }
+
+    @Override
+    public int add(Ticket ticket) {
+        try {
+            ensureRecordSegments(rows + 1);
+            Venue venue = ticket.getVenue();
+            long name = writeString(ticket.getName());
+            long street = writeString(venue.getAddress().street());
+            long zipCode = writeString(venue.getAddress().zipCode());
+            MappedByteBuffer r = record(rows);
+            int o = offset(rows);
+            r.putLong(o + ID, ticket.getId()).putInt(o + X, ticket.getX()).putInt(o + Y, ticket.getY())
+                    .putLong(o + CREATION_DATE, ticket.getCreationDate().toEpochSecond(ZoneOffset.UTC)).putInt(o + PRICE, ticket.getPrice())
+                    .put(o + TYPE, (byte) ticket.getType().ordinal()).put(o + VENUE_TYPE, (byte) venue.getType().ordinal()).put(o + DELETED, (byte) 0)
+                    .putLong(o + CAPACITY, venue.getCapacity()).putLong(o + NAME, name).putLong(o + STREET, street).putLong(o + ZIP_CODE, zipCode);
+            header.putInt(H_ROWS, rows + 1).putLong(H_STRINGS_END, stringsEnd);
+            return rows++;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Не удалось расширить файлы хранилища", e);
+        }
+    }
+
+    /**
+     * Дописывает строку в файл строк. Строка не разрывается между частями отображения: если она не помещается в текущую часть, она пишется в следующую
+     *
+     * @return возвращает смещение строки или -1 для null
+     */
+    private long writeString(String str) throws IOException {
+        if (str == null) return -1;
+        byte[] bytes = str.getBytes(StandardCharsets.UTF_8);
+        int length = Integer.BYTES + bytes.length;
+        if (length > SEGMENT) throw new IllegalArgumentException("Слишком длинная строка - " + bytes.length + " байт");
+        if (stringsEnd % SEGMENT + length > SEGMENT) stringsEnd = (stringsEnd / SEGMENT + 1) * SEGMENT;
+        ensureStringSegments(stringsEnd + length);
+        long position = stringsEnd;
+        MappedByteBuffer segment = stringSegments[(int) (position / SEGMENT)];
+        int o = (int) (position % SEGMENT);
+        segment.putInt(o, bytes.length).put(o + Integer.BYTES, bytes);
+        stringsEnd += length;
+        return position;
+    }
+
+    private String readString(long position) {
+        if (position < 0) return null;
+        MappedByteBuffer segment = stringSegments[(int) (position / SEGMENT)];
+        int o = (int) (position % SEGMENT);
+        byte[] bytes = new byte[segment.getInt(o)];
+        segment.get(o + Integer.BYTES, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public Ticket get(int row) {
+        MappedByteBuffer r = record(row);
+        int o = offset(row);
+        long id = r.getLong(o + ID);
+        String name = readString(r.getLong(o + NAME));
+        return new Ticket(id, name, new Coordinates(r.getInt(o + X), r.getInt(o + Y)), LocalDateTime.ofEpochSecond(r.getLong(o + CREATION_DATE), 0, ZoneOffset.UTC),
+                r.getInt(o + PRICE), TICKET_TYPES[r.get(o + TYPE)],
+                new Venue(id, name, r.getLong(o + CAPACITY), VENUE_TYPES[r.get(o + VENUE_TYPE)],
+                        new Address(readString(r.getLong(o + STREET)), readString(r.getLong(o + ZIP_CODE)))));
+    }
+
+    @Override
+    public long id(int row) {
+        return record(row).getLong(offset(row) + ID);
+    }
+
+    @Override
+    public String name(int row) {
+        return readString(record(row).getLong(offset(row) + NAME));
+    }
+
+    @Override
+    public int price(int row) {
+        return record(row).getInt(offset(row) + PRICE);
+    }
+
+    @Override
+    public TicketType type(int row) {
+        return TICKET_TYPES[record(row).get(offset(row) + TYPE)];
+    }
+
+    @Override
+    public long capacity(int row) {
+        return record(row).getLong(offset(row) + CAPACITY);
+    }
+
+    @Override
+    public int rows() {
+        return rows;
+    }
+
+    @Override
+    public void release(int row) {
+        record(row).put(offset(row) + DELETED, (byte) 1);
+    }
+
+    @Override
+    public int[] recovered() {
+        return recovered;
+    }
+
+    /**
+     * Создает хранилище следующего поколения и закрывает каналы этого. Отображения этого хранилища остаются доступны для чтения
+     */
+    @Override
+    public TicketStore empty() {
+        MappedTicketStore next = new MappedTicketStore(dir, generation + 1, false);
+        try {
+            records.close();
+            strings.close();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return next;
+    }
+
+    @Override
+    public boolean persistent() {
+        return true;
+    }
+
+    @Override
+    public long recoveredMark() {
+        return recoveredMark;
+    }
+
+    /**
+     * Сбрасывает отображения на диск и отмечает файлы как целостные
+     */
+    @Override
+    public void close(long mark) {
+        try {
+            for (MappedByteBuffer segment : recordSegments) segment.force();
+            for (MappedByteBuffer segment : stringSegments) segment.force();
+            header.putInt(H_ROWS, rows).putLong(H_STRINGS_END, stringsEnd).putLong(H_MARK, mark).putInt(H_CLEAN, 1);
+            header.force();
+            records.close();
+            strings.close();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Не удалось закрыть файлы хранилища", e);
+        }
+    }
+}
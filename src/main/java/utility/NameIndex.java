@@ -0,0 +1,169 @@
+package utility;
+
+import java.util.Arrays;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * Инвертированный индекс триграмм названий билетов для поиска по подстроке {@link TicketVector#filterContainsName}.
+ * <br>Для каждой триграммы (трех подряд идущих символов названия) хранится список порядковых номеров {@link TicketEntry#seq} элементов,
+ * в названии которых она встречается. Список - примитивный массив int в порядке возрастания, номер занимает 4 байта без объектов-оберток.
+ * Номера меньше {@link TicketEntry#MAX_SEQ}: коллекция перенумеровывает элементы и строит новый индекс раньше, чем они перестанут помещаться в int.
+ * Номер триграммы в массиве списков находится по {@link LongIndex}, ключ - три символа, упакованные в long.
+ * <br>Индекс только пополняется: номера удаленных элементов остаются в списках и отсеиваются при проверке кандидатов по снимку.
+ * Поэтому индекс, на который ссылается снимок {@link TicketVector.Snapshot}, содержит все его элементы, даже если коллекция уже изменилась.
+ * Когда удаленных номеров становится больше, чем элементов, коллекция строит новый индекс {@link NameIndex#of}, а старый остается у старых снимков.
+ * <br>Добавление выполняется под блокировкой записи, чтение - под блокировкой чтения только на время сбора списков: в уже записанную часть списка
+ * ничего не пишется, поэтому пересекать списки можно без блокировки
+ */
+public class NameIndex {
+    /**
+     * Длина n-граммы. Запросы короче нее индекс не обслуживает
+     */
+    public static final int GRAM = 3;
+    /**
+     * Число удаленных номеров, после которого индекс можно перестроить
+     */
+    private static final int MIN_COMPACTION = 1024;
+
+    private final LongIndex slots = new LongIndex();
+    private int[][] postings = new int[16][];
+    private int[] lengths = new int[16];
+    private int grams = 0;
+    /**
+     * Поле количества элементов, добавленных в индекс
+     */
+    private int added = 0;
+    /**
+     * Поле количества удаленных элементов, номера которых еще остались в списках
+     */
+    private int removed = 0;
+    private final StampedLock lock = new StampedLock();
+
+    /**
+     * @return возвращает новый индекс по названиям элементов
+     */
+    public static NameIndex of(Iterable<TicketEntry> entries) {
+        NameIndex index = new NameIndex();
+        for (TicketEntry e : entries) index.add(e.seq(), e.name());
+        return index;
+    }
+
+    private static long gram(CharSequence s, int i) {
+        return (long) s.charAt(i) << 32 | (long) s.charAt(i + 1) << 16 | s.charAt(i + 2);
+    }
+
+    /**
+     * Добавляет элемент в индекс. Номера должны добавляться в порядке возрастания
+     *
+     * @param seq  порядковый номер элемента, меньше {@link TicketEntry#MAX_SEQ}
+     * @param name название билета
+     * @throws IllegalArgumentException если номер не помещается в int
+     */
+    public void add(long seq, String name) {
+        if (seq < 0 || seq > Integer.MAX_VALUE) throw new IllegalArgumentException("Номер элемента " + seq + " не помещается в индекс названий");
+        long stamp = lock.writeLock();
+        try {
+            for (int i = 0; i + GRAM <= name.length(); i++) {
+                long gram = gram(name, i);
+                int slot = (int) slots.get(gram);
+                if (slot < 0) {
+                    if (grams == postings.length) {
+                        postings = Arrays.copyOf(postings, grams * 2);
+                        lengths = Arrays.copyOf(lengths, grams * 2);
+                    }
+                    slot = grams++;
+                    postings[slot] = new int[4];
+                    slots.put(gram, slot);
+                }
+                int[] list = postings[slot];
+                int length = lengths[slot];
+                // Триграмма может повторяться в одном названии
+                if (length > 0 && list[length - 1] == (int) seq) continue;
+                if (length == list.length) postings[slot] = list = Arrays.copyOf(list, length * 2);
+                list[length] = (int) seq;
+                lengths[slot] = length + 1;
+            }
+            added++;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Отмечает, что элементы удалены из коллекции. Их номера остаются в списках до перестроения индекса
+     *
+     * @param count количество удаленных элементов
+     */
+    public void removed(int count) {
+        long stamp = lock.writeLock();
+        try {
+            removed += count;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * @return возвращает true, если удаленных номеров в индексе больше, чем элементов в коллекции, и индекс пора перестроить
+     */
+    public boolean needsCompaction() {
+        long stamp = lock.readLock();
+        try {
+            return removed >= MIN_COMPACTION && removed > added - removed;
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * Находит номера элементов, в названии которых есть все триграммы запроса. Среди них могут быть удаленные элементы,
+     * элементы, добавленные позже снимка, и элементы, в которых триграммы стоят не подряд, поэтому кандидатов нужно проверять
+     *
+     * @param query подстрока
+     * @return возвращает номера-кандидаты в порядке возрастания или null, если запрос короче {@link NameIndex#GRAM} символов
+     */
+    public int[] candidates(String query) {
+        if (query.length() < GRAM) return null;
+        int n = query.length() - GRAM + 1;
+        int[][] lists = new int[n][];
+        int[] lens = new int[n];
+        long stamp = lock.readLock();
+        try {
+            for (int i = 0; i < n; i++) {
+                int slot = (int) slots.get(gram(query, i));
+                if (slot < 0) return new int[0];
+                lists[i] = postings[slot];
+                lens[i] = lengths[slot];
+            }
+        } finally {
+            lock.unlockRead(stamp);
+        }
+        Integer[] order = new Integer[n];
+        for (int i = 0; i < n; i++) order[i] = i;
+        Arrays.sort(order, (a, b) -> Integer.compare(lens[a], lens[b]));
+        int[] result = Arrays.copyOf(lists[order[0]], lens[order[0]]);
+        int size = result.length;
+        for (int k = 1; k < n && size > 0; k++) size = retain(result, size, lists[order[k]], lens[order[k]]);
+        return Arrays.copyOf(result, size);
+    }
+
+    /**
+     * Оставляет в начале result только номера, которые есть в списке list. Поиск идет двоичным поиском с продвижением,
+     * поэтому короткий result пересекается с длинным списком за O(|result| log |list|)
+     *
+     * @return возвращает количество оставшихся номеров
+     */
+    private static int retain(int[] result, int size, int[] list, int length) {
+        int kept = 0, from = 0;
+        for (int i = 0; i < size && from < length; i++) {
+            int pos = Arrays.binarySearch(list, from, length, result[i]);
+            if (pos >= 0) {
+                result[kept++] = result[i];
+                from = pos + 1;
+            } else {
+                from = -pos - 1;
+            }
+        }
+        return kept;
+    }
+}
@@ -0,0 +1,189 @@
+package utility;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.nio.channels.*;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Поток-реактор серверного приложения.
+ * <br>Владеет одним {@link Selector} и в неблокирующем режиме принимает подключения, читает команды и пишет ответы.
+ * <br>Полностью прочитанные команды передаются обработчику, который исполняет их вне потока-реактора.
+ * <br>На кадры {@link Frame#PING} отвечает сам, а сессии, от которых дольше {@link Reactor#IDLE_TIMEOUT} мс не было ни одного кадра, закрывает
+ */
+public class Reactor implements Runnable {
+    /**
+     * Обработчик полностью прочитанных команд
+     */
+    public interface RequestHandler {
+        void handle(ClientConnection connection, long id, Command command);
+    }
+
+    /**
+     * Время в мс, после которого молчащая сессия считается мертвой. Клиент {@link ServerConnection} присылает пинг чаще
+     */
+    public static final long IDLE_TIMEOUT = 30000;
+
+    /**
+     * Поле логгера {@link Logger}
+     */
+    private static final Logger logger = LogManager.getLogger(Reactor.class);
+    private final Selector selector;
+    /**
+     * Задачи, которые другие потоки ставят на исполнение в потоке-реакторе (регистрация каналов, смена интереса к записи)
+     */
+    private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+    /**
+     * Обработчик полностью прочитанных команд
+     */
+    private final RequestHandler handler;
+    private final Thread thread;
+
+    public Reactor(String name, RequestHandler handler) throws IOException {
+        this.selector = Selector.open();
+        this.handler = handler;
+        this.thread = new Thread(this, name);
+    }
+
+    public void start() {
+        thread.start();
+    }
+
+    /**
+     * Регистрирует {@link ServerSocketChannel}, подключения с которого будут распределяться по переданным реакторам
+     *
+     * @param serv     канал сервера
+     * @param reactors реакторы, между которыми по кругу распределяются новые подключения
+     */
+    public void listen(ServerSocketChannel serv, Reactor[] reactors) throws IOException {
+        serv.configureBlocking(false);
+        execute(() -> {
+            try {
+                serv.register(selector, SelectionKey.OP_ACCEPT, reactors);
+            } catch (ClosedChannelException e) {
+                logger.error("Не удалось начать прием подключений: " + e.getMessage());
+            }
+        });
+    }
+
+    /**
+     * Регистрирует принятый канал в селекторе данного реактора
+     */
+    public void register(SocketChannel sock) {
+        execute(() -> {
+            try {
+                sock.configureBlocking(false);
+                ClientConnection connection = new ClientConnection(sock, this);
+                connection.setKey(sock.register(selector, SelectionKey.OP_READ, connection));
+                logger.info("Установлено подключение. Адрес - " + connection.getAddress() + ".");
+            } catch (IOException e) {
+                logger.warn("Не удалось зарегистрировать подключение: " + e.getMessage());
+                try {
+                    sock.close();
+                } catch (IOException ignored) {
+                }
+            }
+        });
+    }
+
+    /**
+     * Ставит задачу на исполнение в потоке-реакторе и будит селектор
+     */
+    public void execute(Runnable task) {
+        tasks.add(task);
+        selector.wakeup();
+    }
+
+    /**
+     * Исполняет задачи, поставленные {@link Reactor#execute}. Ошибка одной задачи записывается в лог и не останавливает реактор
+     */
+    private void runTasks() {
+        Runnable task;
+        while ((task = tasks.poll()) != null) {
+            try {
+                task.run();
+            } catch (RuntimeException e) {
+                logger.warn("Ошибка в задаче реактора: " + e);
+            }
+        }
+    }
+
+    @Override
+    public void run() {
+        int next = 0;
+        long lastReap = System.nanoTime();
+        while (!Thread.currentThread().isInterrupted() && selector.isOpen()) {
+            try {
+                selector.select(IDLE_TIMEOUT / 3);
+                runTasks();
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    if (!key.isValid()) continue;
+                    if (key.isAcceptable()) {
+                        SocketChannel sock = ((ServerSocketChannel) key.channel()).accept();
+                        if (sock == null) continue;
+                        Reactor[] reactors = (Reactor[]) key.attachment();
+                        reactors[next].register(sock);
+                        next = (next + 1) % reactors.length;
+                        continue;
+                    }
+                    ClientConnection connection = (ClientConnection) key.attachment();
+                    try {
+                        if (key.isReadable() && connection.read()) {
+                            Frame frame;
+                            while ((frame = connection.nextFrame()) != null) {
+                                switch (frame.type()) {
+                                    case Frame.REQUEST -> handler.handle(connection, frame.id(), connection.decode(frame));
+                                    case Frame.PING -> connection.send(new Frame(Frame.PONG, frame.id()));
+                                    default -> throw new IOException("Неожиданный тип кадра - " + frame.type());
+                                }
+                            }
+                        }
+                        if (key.isValid() && key.isWritable()) connection.write();
+                    } catch (IOException e) {
+                        connection.close();
+                    } catch (RuntimeException e) {
+                        logger.warn("Ошибка при обработке кадра от " + connection.getAddress() + ": " + e);
+                        connection.close();
+                    }
+                }
+                if (System.nanoTime() - lastReap > TimeUnit.MILLISECONDS.toNanos(IDLE_TIMEOUT / 3)) {
+                    lastReap = System.nanoTime();
+                    reapIdle();
+                }
+            } catch (ClosedSelectorException e) {
+                break;
+            } catch (IOException e) {
+                logger.error("Ошибка в цикле реактора: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Закрывает сессии, от которых дольше {@link Reactor#IDLE_TIMEOUT} мс не было ни одного кадра.
+     * Сессии, исполняющие пакет команд, не закрываются: пока пакет исполняется, их сокет может не читаться
+     */
+    private void reapIdle() {
+        long now = System.nanoTime();
+        for (SelectionKey key : selector.keys()) {
+            if (key.attachment() instanceof ClientConnection connection
+                    && now - connection.getLastActivity() > TimeUnit.MILLISECONDS.toNanos(IDLE_TIMEOUT)
+                    && !connection.isDraining()) {
+                logger.info("Сессия " + connection.getAddress() + " не отвечает.");
+                connection.close();
+            }
+        }
+    }
+
+    public void stop() throws IOException {
+        thread.interrupt();
+        selector.close();
+    }
+}
@@ -0,0 +1,142 @@
+package utility;
+
+import ticket.Ticket;
+import ticket.TicketRecord;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Поток частей ответа на одну команду.
+ * <br>Текст накапливается, пока не наберется {@link ResponseStream#CHUNK_SIZE} символов, после чего отправляется клиенту отдельным кадром {@link Frame#CHUNK}.
+ * Поэтому память на команду не зависит от размера коллекции, а первые строки появляются у клиента до окончания исполнения команды.
+ * <br>Если клиент не успевает читать, отправка приостанавливается {@link ClientConnection#awaitWritable}, а если не читает дольше {@link Reactor#IDLE_TIMEOUT} мс, сессия закрывается и отправка завершается {@link IOException}.
+ * <br>Поток может запоминать закодированные части для кэша результатов {@link ResultCache}
+ */
+public class ResponseStream {
+    /**
+     * Размер части ответа в символах
+     */
+    public static final int CHUNK_SIZE = 16384;
+    /**
+     * Размер части ответа в билетах, если билеты передаются в компактном виде {@link TicketRecord}
+     */
+    public static final int CHUNK_RECORDS = 128;
+    private final ClientConnection connection;
+    private final long id;
+    private final StringBuilder sb = new StringBuilder();
+    /**
+     * Поле признака того, что билеты передаются в компактном виде {@link Command#isStructured}
+     */
+    private final boolean structured;
+    private final List<TicketRecord> records = new ArrayList<>();
+    /**
+     * Способ кодирования, которым кодируются все части ответа
+     */
+    private final Codec codec;
+    /**
+     * Запомненные закодированные части. null, если части не запоминаются или их объем превысил {@link ResponseStream#recordLimit}
+     */
+    private List<byte[]> recorded;
+    private long recordedBytes = 0;
+    private final long recordLimit;
+
+    public ResponseStream(ClientConnection connection, long id) {
+        this(connection, id, false, -1);
+    }
+
+    /**
+     * @param structured  true, если билеты нужно передавать в компактном виде {@link TicketRecord}
+     * @param recordLimit максимальный объем запоминаемых частей в байтах. Отрицательное значение - части не запоминаются
+     */
+    public ResponseStream(ClientConnection connection, long id, boolean structured, long recordLimit) {
+        this.connection = connection;
+        this.id = id;
+        this.structured = structured;
+        this.codec = connection.getCodec();
+        this.recordLimit = recordLimit;
+        if (recordLimit >= 0) recorded = new ArrayList<>();
+    }
+
+    /**
+     * Добавляет строку к ответу. Строка не разрывается между частями
+     */
+    public ResponseStream append(String str) throws IOException {
+        sb.append(str);
+        if (sb.length() >= CHUNK_SIZE) flush();
+        return this;
+    }
+
+    /**
+     * Добавляет строку к ответу и сразу отправляет накопленную часть, например, сообщение о ходе долгой команды
+     */
+    public ResponseStream appendNow(String str) throws IOException {
+        sb.append(str);
+        flush();
+        return this;
+    }
+
+    /**
+     * Добавляет билет к ответу. В компактном виде билет передается рекордом {@link TicketRecord}, иначе - строкой {@link Ticket#toString} и разделителем
+     *
+     * @param separator строка, которая в текстовом виде пишется после билета. В компактном виде ее добавляет клиент
+     */
+    public ResponseStream append(Ticket ticket, String separator) throws IOException {
+        if (!structured) return append(ticket + separator);
+        records.add(TicketRecord.of(ticket));
+        if (records.size() >= CHUNK_RECORDS) flush();
+        return this;
+    }
+
+    private void flush() throws IOException {
+        byte[] payload = codec.encodeAnswer(new Answer(sb.toString(), false, List.copyOf(records)));
+        sb.setLength(0);
+        records.clear();
+        if (recorded != null) {
+            recordedBytes += payload.length;
+            if (recordedBytes <= recordLimit) recorded.add(payload);
+            else recorded = null;
+        }
+        sendChunk(payload);
+    }
+
+    /**
+     * Отправляет уже закодированные части ответа, например, взятые из кэша {@link ResultCache}
+     */
+    public void replay(List<byte[]> chunks) throws IOException {
+        for (byte[] payload : chunks) sendChunk(payload);
+    }
+
+    private void sendChunk(byte[] payload) throws IOException {
+        try {
+            connection.awaitWritable();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Отправка ответа прервана");
+        }
+        if (!connection.isOpen()) throw new IOException("Клиент отключился");
+        connection.send(new Frame(Frame.CHUNK, id, payload));
+    }
+
+    public Codec getCodec() {
+        return codec;
+    }
+
+    /**
+     * @return возвращает запомненные части или null, если они не запоминались или не уместились в ограничение
+     */
+    public List<byte[]> getRecorded() {
+        return recorded;
+    }
+
+    /**
+     * @return возвращает завершающий ответ с еще не отправленным остатком текста
+     */
+    public Answer finish() {
+        Answer answer = new Answer(sb.toString(), false, List.copyOf(records));
+        sb.setLength(0);
+        records.clear();
+        return answer;
+    }
+}
@@ -0,0 +1,96 @@
+package utility;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Кэш результатов команд, не изменяющих коллекцию.
+ * <br>Ключ - способ кодирования, вид ответа и команда с аргументами, значение - уже закодированные части ответа и завершающий ответ.
+ * Каждый результат помечен версией коллекции {@link TicketVector#getVersion}, при которой он вычислен. Любое изменение коллекции увеличивает версию,
+ * поэтому результат с другой версией считается устаревшим и удаляется при обращении.
+ * <br>Размер кэша ограничен числом записей и суммарным числом байт, при переполнении вытесняются давно не использованные записи
+ */
+public class ResultCache {
+    /**
+     * Рекорд закэшированного результата
+     *
+     * @param version версия коллекции, при которой вычислен результат
+     * @param chunks  полезная нагрузка кадров {@link Frame#CHUNK}
+     * @param answer  полезная нагрузка завершающего кадра {@link Frame#RESPONSE}
+     * @param size    примерный объем занимаемой памяти в байтах
+     */
+    public record Result(long version, List<byte[]> chunks, byte[] answer, long size) {
+        public Result(long version, List<byte[]> chunks, byte[] answer) {
+            this(version, chunks, answer, answer.length + chunks.stream().mapToLong(c -> c.length + 16).sum() + 64);
+        }
+    }
+
+    private final Map<String, Result> results = new LinkedHashMap<>(16, 0.75f, true);
+    private final int maxEntries;
+    private final long maxBytes;
+    private long bytes = 0;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * @param maxEntries максимальное число записей
+     * @param maxBytes   максимальный суммарный размер записей в байтах
+     */
+    public ResultCache(int maxEntries, long maxBytes) {
+        this.maxEntries = maxEntries;
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * @return возвращает ключ результата команды для клиента, использующего указанный способ кодирования
+     */
+    public static String key(Codec codec, Command command) {
+        return codec.getClass().getSimpleName() + (command.isStructured() ? "+records:" : ":") + String.join(" ", command.getCommand());
+    }
+
+    /**
+     * @return возвращает максимальный размер одного результата в байтах. Результаты большего размера не кэшируются
+     */
+    public long getMaxResultBytes() {
+        return maxBytes / 4;
+    }
+
+    /**
+     * @param version текущая версия коллекции
+     * @return возвращает результат, вычисленный при текущей версии коллекции, или null
+     */
+    public synchronized Result get(String key, long version) {
+        Result result = results.get(key);
+        if (result != null && result.version() != version) {
+            results.remove(key);
+            bytes -= result.size();
+            result = null;
+        }
+        (result == null ? misses : hits).incrementAndGet();
+        return result;
+    }
+
+    public synchronized void put(String key, Result result) {
+        if (result.size() > getMaxResultBytes()) return;
+        Result old = results.put(key, result);
+        if (old != null) bytes -= old.size();
+        bytes += result.size();
+        Iterator<Result> eldest = results.values().iterator();
+        while ((results.size() > maxEntries || bytes > maxBytes) && eldest.hasNext()) {
+            bytes -= eldest.next().size();
+            eldest.remove();
+        }
+    }
+
+    /**
+     * @return возвращает строку со статистикой кэша: число записей, объем, попадания и промахи
+     */
+    public synchronized String getStats() {
+        long h = hits.get(), m = misses.get();
+        return String.format("Записей - %d, объем - %d байт, попаданий - %d, промахов - %d (%.1f%% попаданий)",
+                results.size(), bytes, h, m, h + m == 0 ? 0.0 : 100.0 * h / (h + m));
+    }
+}
@@ -1,30 +1,120 @@
 package utility;
 
-import ticket.Ticket;
-import ticket.TicketBuilder;
-import ticket.TicketType;
+import ticket.*;
 
-import java.io.FileInputStream;
 import java.io.IOException;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
 import java.sql.*;
 import java.time.LocalDateTime;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Properties;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.Stream;
 
+/**
+ * Класс, связывающий коллекцию {@link TicketVector} с базой данных.
+ * <br>Каждый метод берет соединение из пула {@link ConnectionPool} на время своей транзакции, поэтому команды разных клиентов
+ * исполняются параллельно, а откат одной команды не затрагивает другие
+ * <br>Изменения билетов записываются триггерами в журнал ticket_changes. Снимок коллекции {@link SnapshotFile} помечается номером последней записи журнала,
+ * и при запуске {@link SQLTickets#loadSnapshot} из базы данных читаются только билеты, измененные после снимка.
+ * Журнал ведется, только если он нужен при запуске: включены снимки или хранилище переживает перезапуск {@link TicketStore#persistent}
+ */
 public class SQLTickets {
-    private final Connection conn;
+    /**
+     * Запрос, добавляющий билеты со всеми связанными строками за одно обращение к базе данных. Поля билетов передаются массивами,
+     * i-й элемент каждого массива относится к i-му билету. id билета и места назначения берутся из последовательностей заранее,
+     * поэтому строки venue, coordinates и address ссылаются на свой билет без сопоставления результатов RETURNING.
+     * Внешние ключи проверяются в конце запроса, когда выполнены все четыре вставки. Возвращает id и дату создания билетов в порядке массивов
+     */
+    private static final String INSERT_TICKETS = "WITH input AS (SELECT i.*, nextval('ticket_id_seq') AS ticket_id, nextval('venue_id_seq') AS venue_id " +
+            "FROM unnest(?::text[], ?::integer[], ?::text[]::ticket_type[], ?::bigint[], ?::text[]::venue_type[], ?::integer[], ?::integer[], ?::text[], ?::text[]) " +
+            "WITH ORDINALITY AS i(name, price, type, capacity, venue_type, x, y, street, zip_code, n)), " +
+            "t AS (INSERT INTO ticket (id, name, price, type, user_name) SELECT ticket_id, name, price, type, ? FROM input RETURNING id, creation_date), " +
+            "v AS (INSERT INTO venue (id, name, capacity, type, ticket_id) SELECT venue_id, name, capacity, venue_type, ticket_id FROM input), " +
+            "c AS (INSERT INTO coordinates (x, y, ticket_id) SELECT x, y, ticket_id FROM input), " +
+            "a AS (INSERT INTO address (street, zip_code, venue_id) SELECT street, zip_code, venue_id FROM input) " +
+            "SELECT t.id, t.creation_date FROM input JOIN t ON t.id = input.ticket_id ORDER BY input.n";
+    /**
+     * Наибольшее число билетов в одном запросе {@link SQLTickets#INSERT_TICKETS}
+     */
+    private static final int INSERT_BATCH = 1000;
+    /**
+     * Число строк, которые драйвер получает от курсора за одно обращение при загрузке коллекции. Задается системным свойством loadFetchSize
+     */
+    private static final int LOAD_FETCH_SIZE = Integer.getInteger("loadFetchSize", 10000);
+    /**
+     * Запрос всех билетов со связанными строками. Столбцы читает {@link SQLTickets#readTicket}
+     */
+    private static final String SELECT_TICKETS =
+            "SELECT ticket.id, ticket.name, price, capacity, x, y, ticket.type, svenue.type AS venue_type, creation_date, street, zip_code FROM ticket " +
+                    "JOIN coordinates ON coordinates.ticket_id = ticket.id " +
+                    "JOIN (SELECT * FROM venue JOIN address ON address.venue_id = venue.id) AS svenue ON svenue.ticket_id = ticket.id";
+    /**
+     * Функция триггеров журнала изменений. Записывает в ticket_changes id билетов, затронутых оператором. Триггеры срабатывают один раз на оператор
+     * и получают все измененные строки таблицей переходов, поэтому добавление тысячи билетов одним запросом дает одну вставку в журнал.
+     * Очистка таблицы ticket записывается строкой с ticket_id = NULL: после нее снимок непригоден
+     */
+    private static final String LOG_FUNCTION = "CREATE OR REPLACE FUNCTION log_ticket_changes() RETURNS trigger AS $$ BEGIN " +
+            "IF TG_OP = 'TRUNCATE' THEN INSERT INTO ticket_changes (ticket_id) VALUES (NULL); " +
+            "ELSIF TG_OP = 'DELETE' THEN INSERT INTO ticket_changes (ticket_id) SELECT id FROM old_rows; " +
+            "ELSIF TG_TABLE_NAME = 'ticket' THEN INSERT INTO ticket_changes (ticket_id) SELECT id FROM new_rows; " +
+            "ELSIF TG_TABLE_NAME = 'address' THEN INSERT INTO ticket_changes (ticket_id) SELECT venue.ticket_id FROM new_rows JOIN venue ON venue.id = new_rows.venue_id; " +
+            "ELSE INSERT INTO ticket_changes (ticket_id) SELECT ticket_id FROM new_rows; " +
+            "END IF; RETURN NULL; END $$ LANGUAGE plpgsql";
+    /**
+     * Триггеры журнала изменений. Строки venue, coordinates и address добавляются и удаляются вместе с билетом, поэтому в них отслеживается только изменение
+     */
+    private static final String[] LOG_TRIGGERS = {
+            "CREATE TRIGGER ticket_insert_log AFTER INSERT ON ticket REFERENCING NEW TABLE AS new_rows FOR EACH STATEMENT EXECUTE FUNCTION log_ticket_changes()",
+            "CREATE TRIGGER ticket_update_log AFTER UPDATE ON ticket REFERENCING NEW TABLE AS new_rows FOR EACH STATEMENT EXECUTE FUNCTION log_ticket_changes()",
+            "CREATE TRIGGER ticket_delete_log AFTER DELETE ON ticket REFERENCING OLD TABLE AS old_rows FOR EACH STATEMENT EXECUTE FUNCTION log_ticket_changes()",
+            "CREATE TRIGGER ticket_truncate_log AFTER TRUNCATE ON ticket FOR EACH STATEMENT EXECUTE FUNCTION log_ticket_changes()",
+            "CREATE TRIGGER venue_update_log AFTER UPDATE ON venue REFERENCING NEW TABLE AS new_rows FOR EACH STATEMENT EXECUTE FUNCTION log_ticket_changes()",
+            "CREATE TRIGGER coordinates_update_log AFTER UPDATE ON coordinates REFERENCING NEW TABLE AS new_rows FOR EACH STATEMENT EXECUTE FUNCTION log_ticket_changes()",
+            "CREATE TRIGGER address_update_log AFTER UPDATE ON address REFERENCING NEW TABLE AS new_rows FOR EACH STATEMENT EXECUTE FUNCTION log_ticket_changes()"};
+
+    private final ConnectionPool pool;
     TicketVector tv = new TicketVector();
+    /**
+     * Блокировка изменений коллекции. Изменяющие методы держат блокировку чтения от начала транзакции до изменения коллекции.
+     * {@link SQLTickets#saveSnapshot} берет блокировку записи, пока читает метку журнала и снимок коллекции, поэтому в снимке есть все изменения до метки
+     */
+    private final ReadWriteLock changes = new ReentrantReadWriteLock();
+    /**
+     * true, если включены снимки коллекции. Тогда записи журнала до метки удаляет {@link SQLTickets#saveSnapshot}, иначе - {@link SQLTickets#exit}
+     */
+    private boolean snapshots;
+    /**
+     * true, если ведется журнал изменений ticket_changes
+     */
+    private boolean changeLog;
+
+    public SQLTickets() throws IOException {
+        pool = ConnectionPool.fromConfig();
+    }
 
-    public SQLTickets() throws IOException, SQLException {
-        Properties info = new Properties();
-        info.load(new FileInputStream("db.cfg"));
-        conn = DriverManager.getConnection("jdbc:postgresql://pg:5432/studs", info);
-        conn.setAutoCommit(false);
+    /**
+     * @return возвращает пул соединений с базой данных. Его же использует {@link Authorizer}
+     */
+    public ConnectionPool getPool() {
+        return pool;
     }
 
-    public void connectToBD() throws SQLException {
-        try (Statement stat = conn.createStatement()) {
+    /**
+     * Создает недостающие таблицы. Триггеры журнала изменений создаются, если журнал нужен, и удаляются вместе с записями журнала, если нет:
+     * без триггеров журнал был бы неполон, поэтому снимки и метки, записанные до его отключения, становятся непригодны
+     *
+     * @param snapshots true, если включены снимки коллекции {@link SQLTickets#saveSnapshot}
+     */
+    public void connectToBD(boolean snapshots) throws SQLException {
+        this.snapshots = snapshots;
+        changeLog = snapshots || tv.snapshot().store().persistent();
+        try (ConnectionPool.Lease lease = pool.borrow();
+             Statement stat = lease.connection().createStatement()) {
+            Connection conn = lease.connection();
             try {
                 stat.executeUpdate("CREATE TYPE venue_type AS enum ('PUB', 'BAR', 'OPEN_AREA');");
                 conn.commit();
@@ -84,69 +174,96 @@ public class SQLTickets {
             } catch (SQLException e) {
                 conn.rollback();
             }
-        }
-    }
-
-    public String add(TicketBuilder tb, String userName) throws SQLException {
-        try (PreparedStatement coordinatesStmt = conn.prepareStatement("INSERT INTO coordinates (x, y, ticket_id) VALUES (?, ?, ?)");
-             PreparedStatement addressStmt = conn.prepareStatement("INSERT INTO address (street, zip_code, venue_id) VALUES (?, ?, ?)");
-             PreparedStatement venueStmt = conn.prepareStatement("INSERT INTO venue (name, capacity, type, ticket_id) VALUES (?, ?, ?, ?) RETURNING id");
-             PreparedStatement ticketStmt = conn.prepareStatement("INSERT INTO ticket (name, price, type, user_name) VALUES (?, ?, ?, ?) RETURNING id, creation_date")) {
-            Long tId = null;
-            ResultSet rs;
-            try {
-                ticketStmt.setString(1, tb.getName());
-                ticketStmt.setInt(2, tb.getPrice());
-                ticketStmt.setObject(3, tb.getType().toString(), Types.OTHER);
-                ticketStmt.setString(4, userName);
-                rs = ticketStmt.executeQuery();
-                if (rs.next()) {
-                    tId = rs.getLong("id");
-                    tb.setCreationDate(rs.getTimestamp("creation_date").toLocalDateTime());
+            try (ResultSet rsL = stat.executeQuery("SELECT EXISTS(SELECT * FROM information_schema.tables WHERE table_name = 'ticket_changes');")) {
+                if (rsL.next()) if (!rsL.getBoolean("exists"))
+                    stat.executeUpdate("CREATE TABLE ticket_changes (" +
+                            "seq bigserial PRIMARY KEY, " +
+                            "ticket_id bigint)");
+                if (changeLog) stat.executeUpdate(LOG_FUNCTION);
+                for (String trigger : LOG_TRIGGERS) {
+                    // CREATE TRIGGER имя AFTER операция ON таблица ...
+                    String[] words = trigger.split(" ");
+                    stat.executeUpdate("DROP TRIGGER IF EXISTS " + words[2] + " ON " + words[6]);
+                    if (changeLog) stat.executeUpdate(trigger);
                 }
+                if (!changeLog) stat.executeUpdate("DELETE FROM ticket_changes");
+                conn.commit();
             } catch (SQLException e) {
                 conn.rollback();
-                return "Ошибка при попытке добавить объект в базу данных./" + e.getMessage();
             }
-            Long vId = null;
-            try {
-                venueStmt.setString(1, tb.getName());
-                venueStmt.setLong(2, tb.getVenueCapacity());
-                venueStmt.setObject(3, tb.getVenueType().toString(), Types.OTHER);
-                venueStmt.setLong(4, tId);
-                rs = venueStmt.executeQuery();
-                if (rs.next()) {
-                    vId = rs.getLong("id");
+        }
+    }
+
+    public String add(TicketBuilder tb, String userName) throws SQLException {
+        return addAll(List.of(tb), userName);
+    }
+
+    /**
+     * Добавляет билеты в базу данных одной транзакцией и, если она зафиксирована, в коллекцию.
+     * Билеты вставляются запросом {@link SQLTickets#INSERT_TICKETS} по {@link SQLTickets#INSERT_BATCH} за одно обращение к базе данных
+     *
+     * @param tbs      билеты. После добавления у них заполнены id и дата создания
+     * @param userName имя владельца билетов
+     * @return возвращает "OK" или сообщение об ошибке. При ошибке не добавляется ни один билет
+     */
+    public String addAll(List<TicketBuilder> tbs, String userName) throws SQLException {
+        changes.readLock().lock();
+        try {
+            try (ConnectionPool.Lease lease = pool.borrow()) {
+                Connection conn = lease.connection();
+                try (PreparedStatement insertStmt = conn.prepareStatement(INSERT_TICKETS)) {
+                    for (int from = 0; from < tbs.size(); from += INSERT_BATCH)
+                        insert(conn, insertStmt, tbs.subList(from, Math.min(tbs.size(), from + INSERT_BATCH)), userName);
+                    conn.commit();
+                } catch (SQLException e) {
+                    conn.rollback();
+                    return "Ошибка при попытке добавить объект в базу данных./" + e.getMessage();
                 }
-            } catch (SQLException e) {
-                conn.rollback();
-                return "Ошибка при попытке добавить объект в базу данных./" + e.getMessage();
-            }
-            try {
-                coordinatesStmt.setInt(1, tb.getX());
-                coordinatesStmt.setInt(2, tb.getY());
-                coordinatesStmt.setLong(3, tId);
-                coordinatesStmt.executeUpdate();
-            } catch (SQLException e) {
-                conn.rollback();
-                return "Ошибка при попытке добавить объект в базу данных./" + e.getMessage();
             }
-            try {
-                addressStmt.setString(1, tb.getAddressStreet());
-                addressStmt.setString(2, tb.getAddressZipCode());
-                addressStmt.setLong(3, vId);
-                addressStmt.executeUpdate();
-            } catch (SQLException e) {
-                conn.rollback();
-                return "Ошибка при попытке добавить объект в базу данных./" + e.getMessage();
+            tv.addAll(tbs.stream().map(TicketBuilder::getTicket).toList());
+            return "OK";
+        } finally {
+            changes.readLock().unlock();
+        }
+    }
+
+    /**
+     * Выполняет {@link SQLTickets#INSERT_TICKETS} для части билетов и записывает в них полученные id и даты создания
+     */
+    private static void insert(Connection conn, PreparedStatement insertStmt, List<TicketBuilder> tbs, String userName) throws SQLException {
+        int n = tbs.size();
+        String[] names = new String[n], types = new String[n], venueTypes = new String[n], streets = new String[n], zipCodes = new String[n];
+        Integer[] prices = new Integer[n], xs = new Integer[n], ys = new Integer[n];
+        Long[] capacities = new Long[n];
+        for (int i = 0; i < n; i++) {
+            TicketBuilder tb = tbs.get(i);
+            names[i] = tb.getName();
+            prices[i] = tb.getPrice();
+            types[i] = tb.getType().toString();
+            capacities[i] = tb.getVenueCapacity();
+            venueTypes[i] = tb.getVenueType().toString();
+            xs[i] = tb.getX();
+            ys[i] = tb.getY();
+            streets[i] = tb.getAddressStreet();
+            zipCodes[i] = tb.getAddressZipCode();
+        }
+        insertStmt.setArray(1, conn.createArrayOf("text", names));
+        insertStmt.setArray(2, conn.createArrayOf("integer", prices));
+        insertStmt.setArray(3, conn.createArrayOf("text", types));
+        insertStmt.setArray(4, conn.createArrayOf("bigint", capacities));
+        insertStmt.setArray(5, conn.createArrayOf("text", venueTypes));
+        insertStmt.setArray(6, conn.createArrayOf("integer", xs));
+        insertStmt.setArray(7, conn.createArrayOf("integer", ys));
+        insertStmt.setArray(8, conn.createArrayOf("text", streets));
+        insertStmt.setArray(9, conn.createArrayOf("text", zipCodes));
+        insertStmt.setString(10, userName);
+        try (ResultSet rs = insertStmt.executeQuery()) {
+            for (TicketBuilder tb : tbs) {
+                if (!rs.next()) throw new SQLException("База данных вернула меньше строк, чем добавлено билетов");
+                tb.setId(rs.getLong("id"));
+                tb.setCreationDate(rs.getTimestamp("creation_date").toLocalDateTime());
             }
-            conn.commit();
-            tb.setId(tId);
-            tv.add(tb.getTicket());
-        } catch (SQLException e) {
-            return "Ошибка при попытке добавить объект в базу данных./" + e.getMessage();
         }
-        return "OK";
     }
 
     public String addIfMax(TicketBuilder tb, String userName) throws SQLException {
@@ -164,6 +281,15 @@ public class SQLTickets {
     }
 
     public String update(TicketBuilder tb, long id, String userName) throws SQLException {
+        changes.readLock().lock();
+        try (ConnectionPool.Lease lease = pool.borrow()) {
+            return update(lease.connection(), tb, id, userName);
+        } finally {
+            changes.readLock().unlock();
+        }
+    }
+
+    private String update(Connection conn, TicketBuilder tb, long id, String userName) throws SQLException {
         try (PreparedStatement ticketStatement = conn.prepareStatement("UPDATE ticket SET name = ?, price = ?, type = ? WHERE id = ?, user_name = ? RETURNING creation_date");
              PreparedStatement venueStatement = conn.prepareStatement("UPDATE venue SET name = ?, capacity = ?, type = ? WHERE ticket_id = ? RETURNING id");
              PreparedStatement addressStatement = conn.prepareStatement("UPDATE address SET street = ?, zip_code = ? WHERE venue_id = ?");
@@ -208,6 +334,15 @@ public class SQLTickets {
     }
 
     public String clear(String userName) throws SQLException {
+        changes.readLock().lock();
+        try (ConnectionPool.Lease lease = pool.borrow()) {
+            return clear(lease.connection(), userName);
+        } finally {
+            changes.readLock().unlock();
+        }
+    }
+
+    private String clear(Connection conn, String userName) throws SQLException {
         try (PreparedStatement preparedStatement = conn.prepareStatement("DELETE FROM ticket WHERE user_name = ? RETURNING id")) {
             preparedStatement.setString(1, userName);
             ResultSet rs = preparedStatement.executeQuery();
@@ -222,19 +357,41 @@ public class SQLTickets {
         return "OK";
     }
 
-    public String clearAll(){
-        try(Statement stat = conn.createStatement()) {
-            stat.executeUpdate("TRUNCATE TABLE ticket RESTART IDENTITY CASCADE");
-        } catch (SQLException e) {
-            return e.getMessage();
+    public String clearAll() {
+        changes.readLock().lock();
+        try {
+            try (ConnectionPool.Lease lease = pool.borrow();
+                 Statement stat = lease.connection().createStatement()) {
+                stat.executeUpdate("TRUNCATE TABLE ticket RESTART IDENTITY CASCADE");
+                lease.connection().commit();
+            } catch (SQLException e) {
+                return e.getMessage();
+            }
+            tv.clear();
+            return "OK";
+        } finally {
+            changes.readLock().unlock();
+        }
+    }
+
+    /**
+     * Удаляет элемент с указанным индексом. Индекс переводится в id сразу, и дальше элемент удаляется по id:
+     * пока команда ждет базу данных, другие команды могут сдвинуть индексы коллекции
+     */
+    public String remove(int index, String userName) throws SQLException {
+        changes.readLock().lock();
+        try {
+            Long id = tv.getIdByIndex(index);
+            if (id == -1) return index == 0 ? "Вектор пустой" : "Индекс выходит за границы вектора";
+            try (ConnectionPool.Lease lease = pool.borrow()) {
+                return remove(lease.connection(), id, userName);
+            }
+        } finally {
+            changes.readLock().unlock();
         }
-        tv.clear();
-        return "OK";
     }
 
-    public synchronized String remove(int index, String userName) throws SQLException {
-        Long id = tv.getIdByIndex(index);
-        if (id == -1) return index == 0 ? "Вектор пустой" : "Индекс выходит за границы вектора";
+    private String remove(Connection conn, long id, String userName) throws SQLException {
         try (PreparedStatement deleteStatement = conn.prepareStatement("DELETE FROM ticket WHERE id = ?");
              PreparedStatement selectStatement = conn.prepareStatement("SELECT EXISTS(SELECT * FROM ticket WHERE id = ? AND user_name = ?)")) {
             selectStatement.setLong(1, id);
@@ -249,15 +406,24 @@ public class SQLTickets {
             conn.rollback();
             return "Ошибка при попытке удалить объект из базы данных./" + e.getMessage();
         }
-        tv.remove(index);
+        tv.removeById(id);
         return "OK";
     }
 
-    public List<Ticket> getAll() {
-        return tv.getAll();
+    public Stream<TicketEntry> getAll() {
+        return tv.entriesBySize();
     }
 
-    public synchronized String removeLower(TicketBuilder tb, String userName) throws SQLException {
+    public String removeLower(TicketBuilder tb, String userName) throws SQLException {
+        changes.readLock().lock();
+        try (ConnectionPool.Lease lease = pool.borrow()) {
+            return removeLower(lease.connection(), tb, userName);
+        } finally {
+            changes.readLock().unlock();
+        }
+    }
+
+    private String removeLower(Connection conn, TicketBuilder tb, String userName) throws SQLException {
         TicketBuilder tb1 = new TicketBuilder();
         List<Long> idL = new ArrayList<>();
         try (PreparedStatement selectIdStatement = conn.prepareStatement("SELECT ticket.id, price, capacity, ticket.type FROM ticket WHERE user_name = ? JOIN venue ON venue.id = ticket.venue_id");
@@ -286,41 +452,52 @@ public class SQLTickets {
         return String.valueOf(tv.removeLower(tb.getTicket()));
     }
 
-    public synchronized String removeById(long id, String userName) {
-        try (PreparedStatement deleteStatement = conn.prepareStatement("DELETE FROM ticket WHERE id = ?");
-             PreparedStatement existsStatement = conn.prepareStatement("SELECT EXISTS(SELECT * FROM ticket WHERE id = ? AND user_name = ?)")) {
-            existsStatement.setLong(1, id);
-            existsStatement.setString(2, userName);
-            ResultSet rs = existsStatement.executeQuery();
-            if (rs.next() && rs.getBoolean(1)) {
-                deleteStatement.setLong(1, id);
-                deleteStatement.executeUpdate();
-            } else return "Вы не можете удалить этот объект.";
-        } catch (SQLException e) {
-            return "Ошибка при попытке подключится к базе данных./" + e.getMessage();
+    public String removeById(long id, String userName) {
+        changes.readLock().lock();
+        try {
+            try (ConnectionPool.Lease lease = pool.borrow();
+                 PreparedStatement deleteStatement = lease.connection().prepareStatement("DELETE FROM ticket WHERE id = ?");
+                 PreparedStatement existsStatement = lease.connection().prepareStatement("SELECT EXISTS(SELECT * FROM ticket WHERE id = ? AND user_name = ?)")) {
+                existsStatement.setLong(1, id);
+                existsStatement.setString(2, userName);
+                ResultSet rs = existsStatement.executeQuery();
+                if (rs.next() && rs.getBoolean(1)) {
+                    deleteStatement.setLong(1, id);
+                    deleteStatement.executeUpdate();
+                } else return "Вы не можете удалить этот объект.";
+                lease.connection().commit();
+            } catch (SQLException e) {
+                return "Ошибка при попытке подключится к базе данных./" + e.getMessage();
+            }
+            tv.removeById(id);
+            return "OK";
+        } finally {
+            changes.readLock().unlock();
         }
-        tv.removeById(id);
-        return "OK";
     }
 
     public String getMinByVenue() {
         return tv.getMinByVenue();
     }
 
-    public List<Ticket> filterContainsName(String str) {
-        return tv.filterContainsName(str);
+    public Stream<TicketEntry> filterContainsName(String str) {
+        return tv.entriesContainingName(str);
+    }
+
+    public Stream<TicketEntry> filterLessThanPrice(int price) {
+        return tv.entriesLessThanPrice(price);
     }
 
-    public List<Ticket> filterLessThanPrice(int price) {
-        return tv.filterLessThanPrice(price);
+    public Stream<TicketEntry> filterByPrice(int price) {
+        return tv.entriesByPrice(price);
     }
 
-    public List<Ticket> filterByPrice(int price) {
-        return tv.filterByPrice(price);
+    public Stream<TicketEntry> filterPriceBetween(int min, int max) {
+        return tv.entriesPriceBetween(min, max);
     }
 
-    public String getFieldAscendingType() {
-        return tv.getFieldAscendingType();
+    public Stream<TicketEntry> getAscendingType() {
+        return tv.entriesAscendingType();
     }
 
     public long getCountGreaterThanType(TicketType type) {
@@ -331,36 +508,106 @@ public class SQLTickets {
         return tv.getInfo();
     }
 
+    /**
+     * @return возвращает версию коллекции, которая увеличивается при каждом ее изменении {@link TicketVector#getVersion}
+     */
+    public long getVersion() {
+        return tv.getVersion();
+    }
+
+    /**
+     * @return возвращает пул параллельных запросов коллекции {@link TicketVector#getQueryPool}. В нем же {@link CSVImporter} проверяет строки файла
+     */
+    public ForkJoinPool getQueryPool() {
+        return tv.getQueryPool();
+    }
+
     public boolean validId(long id) {
         return tv.validId(id);
     }
 
-    public void exit() throws SQLException {
-        conn.close();
+    /**
+     * Закрывает пул соединений и хранилище коллекции. Хранилище получает метку журнала изменений {@link SQLTickets#readMark},
+     * прочитанную под блокировкой записи {@link SQLTickets#changes}, по ней при следующем запуске дочитываются изменения {@link SQLTickets#replayChanges}.
+     * Если снимки выключены, записи журнала до метки больше не нужны и удаляются.
+     * Вызывается, когда команды уже не исполняются
+     */
+    public void exit() {
+        long mark = -1;
+        changes.writeLock().lock();
+        try {
+            if (changeLog) try (ConnectionPool.Lease lease = pool.borrow();
+                                Statement stat = lease.connection().createStatement()) {
+                mark = readMark(stat);
+                if (!snapshots) stat.executeUpdate("DELETE FROM ticket_changes WHERE seq < " + mark);
+                lease.connection().commit();
+            } catch (SQLException e) {
+                // Без метки восстановленная коллекция при следующем запуске загружается заново
+            }
+            pool.close();
+            tv.close(mark);
+        } finally {
+            changes.writeLock().unlock();
+        }
+    }
+
+    /**
+     * @return возвращает true, если коллекция восстановлена из хранилища с прошлого запуска {@link TicketVector#isRecovered}
+     */
+    public boolean isRecovered() {
+        return tv.isRecovered();
+    }
+
+    /**
+     * Дочитывает в коллекцию, восстановленную из хранилища с прошлого запуска, билеты, измененные после метки хранилища {@link TicketVector#recoveredMark}.
+     * Проверки журнала те же, что и у снимка {@link SQLTickets#loadSnapshot}. Если журнал непригоден, коллекция очищается, и ее нужно загрузить заново
+     *
+     * @return возвращает "OK/число измененных билетов" или причину, по которой коллекция очищена
+     */
+    public String replayChanges() throws SQLException {
+        long maxId = tv.snapshot().entries().stream().mapToLong(TicketEntry::id).max().orElse(0);
+        List<Long> ids = new ArrayList<>();
+        List<Ticket> fresh = new ArrayList<>();
+        String resp;
+        try (ConnectionPool.Lease lease = pool.borrow()) {
+            resp = readChanges(lease.connection(), tv.recoveredMark(), maxId, ids, fresh);
+        }
+        if (resp != null) {
+            tv.clear();
+            return resp;
+        }
+        tv.removeAllById(ids.stream().mapToLong(Long::longValue).toArray());
+        tv.addAll(fresh);
+        return "OK/" + ids.size();
     }
 
     public String loadTickets() throws SQLException {
-        String select_query =
-                "SELECT ticket.id, ticket.name, price, capacity, x, y, ticket.type, svenue.type AS venue_type, creation_date, street, zip_code FROM ticket " +
-                        "JOIN coordinates ON coordinates.ticket_id = ticket.id " +
-                        "JOIN (SELECT * FROM venue JOIN address ON address.venue_id = venue.id) AS svenue ON svenue.ticket_id = ticket.id";
-        TicketBuilder tb = new TicketBuilder();
-        try (PreparedStatement stat = conn.prepareStatement(select_query);
-             ResultSet rsT = stat.executeQuery()) {
-            while (rsT.next()) {
-                tb.clear();
-                tb.setId(rsT.getLong("id"));
-                tb.setName(rsT.getString("name"));
-                tb.setCreationDate(rsT.getTimestamp("creation_date").toLocalDateTime());
-                tb.setPrice(String.valueOf(rsT.getInt("price")));
-                tb.setType(rsT.getString("type"));
-                tb.setVenueCapacity(rsT.getString("capacity"));
-                tb.setVenueType(rsT.getString("venue_type"));
-                tb.setAddressStreet(rsT.getString("street"));
-                tb.setAddressZipCode(rsT.getString("zip_code"));
-                tb.setX(String.valueOf(rsT.getInt("x")));
-                tb.setY(String.valueOf(rsT.getInt("y")));
-                tv.add(tb.getTicket());
+        try (ConnectionPool.Lease lease = pool.borrow()) {
+            return loadTickets(lease.connection());
+        }
+    }
+
+    /**
+     * Загружает коллекцию из базы данных при запуске сервера.
+     * <br>Результат читается курсором на сервере частями по {@link SQLTickets#LOAD_FETCH_SIZE} строк, поэтому драйвер не держит в памяти весь результат.
+     * Билеты собираются прямо из столбцов результата, без разбора строк {@link TicketBuilder} и добавляются в коллекцию пачками
+     * одним изменением {@link TicketVector#addAll}: размеры билетов пачки считаются параллельно, упорядоченные представления перестраиваются слиянием.
+     * Пачка не меньше четверти коллекции, поэтому за всю загрузку представления перестраиваются O(log n) раз
+     */
+    private String loadTickets(Connection conn) throws SQLException {
+        try (PreparedStatement stat = conn.prepareStatement(SELECT_TICKETS, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)) {
+            // Курсор используется драйвером только при заданном размере части и выключенной автофиксации
+            stat.setFetchSize(LOAD_FETCH_SIZE);
+            try (ResultSet rsT = stat.executeQuery()) {
+                List<Ticket> batch = new ArrayList<>();
+                while (rsT.next()) {
+                    batch.add(readTicket(rsT));
+                    if (batch.size() >= Math.max(LOAD_FETCH_SIZE, tv.snapshot().size() / 4)) {
+                        tv.addAll(batch);
+                        batch.clear();
+                    }
+                }
+                tv.addAll(batch);
             }
             conn.commit();
             return "OK";
@@ -369,4 +616,191 @@ public class SQLTickets {
             return "Ошибка при чтении из базы данных. " + e.getMessage();
         }
     }
+
+    /**
+     * Собирает билет из текущей строки результата {@link SQLTickets#SELECT_TICKETS} по номерам столбцов
+     */
+    private static Ticket readTicket(ResultSet rs) throws SQLException {
+        long id = rs.getLong(1);
+        String name = rs.getString(2);
+        return new Ticket(id, name, new Coordinates(rs.getInt(5), rs.getInt(6)), rs.getTimestamp(9).toLocalDateTime(), rs.getInt(3),
+                TicketType.valueOf(rs.getString(7)),
+                new Venue(id, name, rs.getLong(4), VenueType.valueOf(rs.getString(8)), new Address(rs.getString(10), rs.getString(11))));
+    }
+
+    /**
+     * Записывает снимок коллекции в файл {@link SnapshotFile#write}. Метка снимка - номер последней записи журнала ticket_changes.
+     * Метка и снимок читаются под блокировкой записи {@link SQLTickets#changes}, сам файл пишется уже без нее.
+     * После записи файла из журнала удаляются записи до метки, сама запись с меткой остается: по ней {@link SQLTickets#loadSnapshot} проверяет,
+     * что журнал после метки полон
+     *
+     * @param file файл снимка
+     * @return возвращает "OK/число билетов в снимке" или сообщение об ошибке
+     */
+    public String saveSnapshot(Path file) {
+        long mark;
+        TicketVector.Snapshot s;
+        // Блокировка берется раньше соединения, как и в изменяющих методах
+        changes.writeLock().lock();
+        try (ConnectionPool.Lease lease = pool.borrow();
+             Statement stat = lease.connection().createStatement()) {
+            // Если журнал пуст, метка ставится новой записью с ticket_id = NULL: снимки до нее непригодны, потому что неизвестно, что было в журнале
+            mark = readMark(stat);
+            lease.connection().commit();
+            s = tv.snapshot();
+        } catch (SQLException e) {
+            return "Ошибка при чтении журнала изменений./" + e.getMessage();
+        } finally {
+            changes.writeLock().unlock();
+        }
+        try {
+            SnapshotFile.write(file, s, mark);
+        } catch (IOException | RuntimeException e) {
+            return "Ошибка при записи файла снимка./" + e.getMessage();
+        }
+        try (ConnectionPool.Lease lease = pool.borrow();
+             PreparedStatement prune = lease.connection().prepareStatement("DELETE FROM ticket_changes WHERE seq < ?")) {
+            prune.setLong(1, mark);
+            prune.executeUpdate();
+            lease.connection().commit();
+        } catch (SQLException e) {
+            return "Снимок записан, но журнал изменений не очищен./" + e.getMessage();
+        }
+        return "OK/" + s.size();
+    }
+
+    /**
+     * Сжимает журнал изменений: из записей одного билета остается последняя. Для любой метки множество билетов, измененных после нее, при этом не меняется,
+     * а журнал между снимками не растет больше числа измененных билетов. Первая запись журнала не удаляется: после {@link SQLTickets#saveSnapshot}
+     * это метка последнего снимка, по которой его проверяет {@link SQLTickets#loadSnapshot}
+     *
+     * @return возвращает "OK/число удаленных записей" или сообщение об ошибке
+     */
+    public String compactChanges() {
+        if (!changeLog) return "OK/0";
+        try (ConnectionPool.Lease lease = pool.borrow();
+             Statement stat = lease.connection().createStatement()) {
+            int deleted = stat.executeUpdate("DELETE FROM ticket_changes old USING ticket_changes newer " +
+                    "WHERE old.ticket_id = newer.ticket_id AND old.seq < newer.seq AND old.seq > (SELECT min(seq) FROM ticket_changes)");
+            lease.connection().commit();
+            return "OK/" + deleted;
+        } catch (SQLException e) {
+            return "Ошибка при сжатии журнала изменений./" + e.getMessage();
+        }
+    }
+
+    /**
+     * Читает метку журнала изменений - номер его последней записи. Вызывается под блокировкой записи {@link SQLTickets#changes}
+     */
+    private static long readMark(Statement stat) throws SQLException {
+        // Если журнал пуст, метка ставится новой записью с ticket_id = NULL: снимки до нее непригодны, потому что неизвестно, что было в журнале
+        try (ResultSet rs = stat.executeQuery("WITH m AS (SELECT max(seq) AS seq FROM ticket_changes), " +
+                "ins AS (INSERT INTO ticket_changes (ticket_id) SELECT NULL FROM m WHERE m.seq IS NULL RETURNING seq) " +
+                "SELECT coalesce((SELECT seq FROM m), (SELECT seq FROM ins))")) {
+            rs.next();
+            return rs.getLong(1);
+        }
+    }
+
+    /**
+     * Восстанавливает коллекцию из файла снимка и билетов, измененных после него. Коллекция должна быть пуста.
+     * <br>Снимок не используется, если он поврежден, если в журнале нет записи с его меткой (журнал очищен другим снимком или база данных создана заново),
+     * если его id больше выданных последовательностью ticket_id_seq или если после него таблица ticket очищалась.
+     * Журнал и измененные билеты читаются одной транзакцией REPEATABLE READ, поэтому видят одно состояние базы данных.
+     * Коллекция меняется только после всех проверок: билеты снимка, кроме измененных, восстанавливаются вместе с размерами и порядками из файла {@link TicketVector#restore},
+     * затем добавляются измененные билеты, которые еще есть в базе данных
+     *
+     * @param file файл снимка
+     * @return возвращает "OK/число измененных после снимка билетов" или причину, по которой снимок не использован
+     */
+    public String loadSnapshot(Path file) throws SQLException {
+        SnapshotFile.Contents contents;
+        try {
+            contents = SnapshotFile.read(file);
+        } catch (NoSuchFileException e) {
+            return "Файл снимка " + file + " не найден";
+        } catch (IOException e) {
+            return "Файл снимка " + file + " не прочитан: " + e.getMessage();
+        }
+        try (ConnectionPool.Lease lease = pool.borrow()) {
+            return loadSnapshot(lease.connection(), contents);
+        }
+    }
+
+    private String loadSnapshot(Connection conn, SnapshotFile.Contents contents) throws SQLException {
+        List<Long> ids = new ArrayList<>();
+        List<Ticket> fresh = new ArrayList<>();
+        String resp = readChanges(conn, contents.mark(), contents.maxId(), ids, fresh);
+        if (resp != null) return resp;
+        LongIndex changed = new LongIndex();
+        for (long id : ids) changed.put(id, 0);
+        SnapshotFile.Contents kept = contents.without(changed);
+        try {
+            tv.restore(kept.tickets(), kept.sizes(), kept.orders());
+        } catch (IllegalArgumentException e) {
+            return "Снимок не совпадает с порядками коллекции: " + e.getMessage();
+        }
+        tv.addAll(fresh);
+        return "OK/" + ids.size();
+    }
+
+    /**
+     * Читает из журнала изменений id билетов, измененных после метки, и эти билеты, если они еще есть в базе данных.
+     * Журнал и билеты читаются одной транзакцией REPEATABLE READ, поэтому видят одно состояние базы данных
+     *
+     * @param mark    метка журнала, до которой актуальна коллекция
+     * @param maxId   наибольший id билета коллекции
+     * @param ids     список, в который добавляются id измененных билетов
+     * @param fresh   список, в который добавляются измененные билеты из базы данных
+     * @return возвращает null или причину, по которой журнал непригоден
+     */
+    private String readChanges(Connection conn, long mark, long maxId, List<Long> ids, List<Ticket> fresh) throws SQLException {
+        try (Statement stat = conn.createStatement();
+             PreparedStatement checkStmt = conn.prepareStatement("SELECT EXISTS(SELECT * FROM ticket_changes WHERE seq = ?), (SELECT last_value FROM ticket_id_seq)");
+             PreparedStatement changesStmt = conn.prepareStatement("SELECT DISTINCT ticket_id FROM ticket_changes WHERE seq > ?");
+             PreparedStatement ticketsStmt = conn.prepareStatement(SELECT_TICKETS + " WHERE ticket.id = ANY(?) ORDER BY ticket.id")) {
+            stat.execute("SET TRANSACTION ISOLATION LEVEL REPEATABLE READ");
+            checkStmt.setLong(1, mark);
+            try (ResultSet rs = checkStmt.executeQuery()) {
+                rs.next();
+                if (!rs.getBoolean(1)) {
+                    conn.rollback();
+                    return "В журнале изменений нет записи " + mark + ", коллекция устарела";
+                }
+                if (maxId > rs.getLong(2)) {
+                    conn.rollback();
+                    return "В коллекции есть id " + maxId + ", которого нет в базе данных";
+                }
+            }
+            changesStmt.setLong(1, mark);
+            try (ResultSet rs = changesStmt.executeQuery()) {
+                while (rs.next()) {
+                    long id = rs.getLong(1);
+                    if (rs.wasNull()) {
+                        conn.rollback();
+                        return "После метки " + mark + " таблица билетов очищалась";
+                    }
+                    ids.add(id);
+                }
+            }
+            if (!ids.isEmpty()) {
+                ticketsStmt.setArray(1, conn.createArrayOf("bigint", ids.toArray()));
+                try (ResultSet rs = ticketsStmt.executeQuery()) {
+                    while (rs.next()) fresh.add(readTicket(rs));
+                }
+            }
+            conn.commit();
+            return null;
+        } catch (SQLException e) {
+            conn.rollback();
+            return "Ошибка при чтении журнала изменений. " + e.getMessage();
+        }
+    }
+
+    /**
+     * @return возвращает количество элементов коллекции
+     */
+    public int size() {
+        return tv.snapshot().size();
+    }
 }
@@ -0,0 +1,46 @@
+package utility;
+
+import java.io.*;
+
+/**
+ * Кодирование команд и ответов стандартной Java-сериализацией ({@link ObjectOutputStream})
+ */
+public class SerializationCodec implements Codec {
+    public static final SerializationCodec INSTANCE = new SerializationCodec();
+
+    @Override
+    public byte[] encodeCommand(Command command) throws IOException {
+        return write(command);
+    }
+
+    @Override
+    public Command decodeCommand(byte[] data) throws IOException {
+        return read(data, Command.class);
+    }
+
+    @Override
+    public byte[] encodeAnswer(Answer answer) throws IOException {
+        return write(answer);
+    }
+
+    @Override
+    public Answer decodeAnswer(byte[] data) throws IOException {
+        return read(data, Answer.class);
+    }
+
+    private static byte[] write(Object o) throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        try (ObjectOutputStream oos = new ObjectOutputStream(baos)) {
+            oos.writeObject(o);
+        }
+        return baos.toByteArray();
+    }
+
+    private static <T> T read(byte[] data, Class<T> type) throws IOException {
+        try (ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(data))) {
+            return type.cast(ois.readObject());
+        } catch (ClassNotFoundException | ClassCastException e) {
+            throw new IOException(e);
+        }
+    }
+}
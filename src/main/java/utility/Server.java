@@ -4,118 +4,303 @@ import ticket.Ticket;
 import ticket.TicketType;
 
 import java.io.*;
-import java.net.ServerSocket;
-import java.net.Socket;
+import java.net.InetSocketAddress;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.file.Path;
 import java.sql.SQLException;
+import java.util.Iterator;
 import java.util.NoSuchElementException;
 import java.util.Scanner;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ForkJoinPool;
+import java.util.Set;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
 /**
  * Класс серверного приложения.
- * <br>Принимает команду от клиентского приложения.
- * <br>Исполняет ее с помощью класса {@link TicketVector}
+ * <br>Принимает команды от клиентских приложений в неблокирующем режиме с помощью потоков-реакторов {@link Reactor}.
+ * <br>Исполняет их с помощью класса {@link TicketVector}
  * <br>Отправляет ответ обратно клиенту
  */
 public class Server {
+    /**
+     * Поле порта, на котором сервер принимает подключения
+     */
+    public static final int PORT = 5465;
     /**
      * Поле {@link TicketVector}
      */
     private final SQLTickets sqlt;
     /**
-     * Поле {@link ServerSocket}, который создает сокеты для общения с клиентом
+     * Поле {@link ServerSocketChannel}, который принимает подключения клиентов
+     */
+    private final ServerSocketChannel serv;
+    private final Authorizer authorizer;
+    /**
+     * Поле загрузчика билетов из csv-файлов {@link CSVImporter}
      */
-    private final ServerSocket serv;
-    private final Authorizer authorizer = new Authorizer();
+    private final CSVImporter importer;
     /**
      * Поле логгера {@link Logger}
      */
     private static final Logger logger = LogManager.getLogger(Server.class);
 
-
-    private final ExecutorService requestPool;
+    /**
+     * Потоки-реакторы, выполняющие прием подключений, чтение команд и запись ответов
+     */
+    private final Reactor[] reactors;
+    /**
+     * Пул, в котором исполняются команды. Выбирается при запуске системным свойством execution {@link Server#createProcessingPool}
+     */
     private final ExecutorService processingPool;
-    private final ExecutorService responsePool;
+    /**
+     * Максимальное число команд, которые одновременно исполняются или ждут исполнения. Задается системным свойством maxInFlight
+     */
+    private final int maxInFlight = Integer.getInteger("maxInFlight", 200);
+    /**
+     * Число команд, которые сейчас исполняются или ждут исполнения
+     */
+    private final AtomicInteger inFlight = new AtomicInteger();
+    /**
+     * Время в секундах, которое сервер при выключении ждет завершения исполняемых команд
+     */
+    private static final long SHUTDOWN_TIMEOUT = 30;
+    /**
+     * Кэш результатов команд, не изменяющих коллекцию. Размер задается системными свойствами resultCacheEntries и resultCacheBytes
+     */
+    private final ResultCache resultCache = new ResultCache(Integer.getInteger("resultCacheEntries", 256), Long.getLong("resultCacheBytes", 32L << 20));
+    /**
+     * Команды, результаты которых кэшируются {@link Server#resultCache}
+     */
+    private static final Set<String> CACHEABLE = Set.of("show", "info", "min_by_venue", "print_field_ascending_type", "count_greater_than_type");
+    /**
+     * Файл снимка коллекции {@link SnapshotFile}, из которого сервер запускается без полной загрузки из базы данных.
+     * Задается системным свойством snapshotFile, по умолчанию - tickets.snap. Пустое значение отключает снимки
+     */
+    private final Path snapshotFile;
+    /**
+     * Период записи снимка в секундах. Задается системным свойством snapshotInterval, 0 - снимок пишется только при выключении сервера
+     */
+    private final long snapshotInterval = Long.getLong("snapshotInterval", 300);
+    /**
+     * Период сжатия журнала изменений {@link SQLTickets#compactChanges} в секундах
+     */
+    private static final long COMPACTION_INTERVAL = 600;
+    /**
+     * Поток, который периодически записывает снимок коллекции и сжимает журнал изменений
+     */
+    private final ScheduledExecutorService snapshotWriter = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "snapshot-writer");
+        thread.setDaemon(true);
+        return thread;
+    });
+    /**
+     * Версия коллекции {@link SQLTickets#getVersion}, записанная в последний снимок
+     */
+    private long snapshotVersion = -1;
 
 
     public Server(SQLTickets sqlt) throws IOException, SQLException {
         this.sqlt = sqlt;
-        sqlt.connectToBD();
-        serv = new ServerSocket(5465);
-        requestPool = ForkJoinPool.commonPool();
-        processingPool = Executors.newFixedThreadPool(10);
-        responsePool = ForkJoinPool.commonPool();
+        authorizer = new Authorizer(sqlt.getPool());
+        importer = new CSVImporter(sqlt);
+        String snapshot = System.getProperty("snapshotFile", "tickets.snap");
+        snapshotFile = snapshot.isEmpty() ? null : Path.of(snapshot);
+        sqlt.connectToBD(snapshotFile != null);
+        serv = ServerSocketChannel.open();
+        serv.bind(new InetSocketAddress(PORT));
+        reactors = new Reactor[Math.max(1, Runtime.getRuntime().availableProcessors() / 2)];
+        for (int i = 0; i < reactors.length; i++)
+            reactors[i] = new Reactor("reactor-" + i, this::connectionAcceptance);
+        processingPool = createProcessingPool(System.getProperty("execution", "platform"), Integer.getInteger("queueCapacity", 100));
     }
 
     /**
-     * Ответ клиенту
+     * Создает пул исполнения команд.
+     * <br>platform - 10 потоков платформы с ограниченной очередью. Если очередь заполнена, команда отклоняется.
+     * <br>virtual - каждая команда исполняется в собственном виртуальном потоке, поэтому число одновременно ждущих ответа БД команд не ограничено размером пула.
+     * Виртуальные потоки требуют Java 21, на более старых версиях используется режим platform
+     *
+     * @param mode          "platform" или "virtual"
+     * @param queueCapacity размер очереди пула потоков платформы. Задается системным свойством queueCapacity
      */
-    private void response(Answer answer, Socket sock) throws IOException, SQLException {
-        ObjectOutputStream oos = new ObjectOutputStream(sock.getOutputStream());
-        oos.writeObject(answer);
-    }
-
-    public void connectionAcceptance(Socket sock) {
-        logger.info("Установлено подключение. Адрес - " + sock.getRemoteSocketAddress() + ".");
-        requestPool.execute(() -> {
+    private static ExecutorService createProcessingPool(String mode, int queueCapacity) {
+        if (mode.equals("virtual")) {
             try {
-                ObjectInputStream ois = new ObjectInputStream(sock.getInputStream());
-                Command command = (Command) ois.readObject();
-                logger.info("Получена команда " + String.join(" ", command.getCommand()) + ". От " + sock.getRemoteSocketAddress() + ".");
-                processingPool.execute(() -> {
-                    Answer answer;
-                    try {
-                        answer = commandExecution(command);
-                    } catch (SQLException e) {
-                        throw new RuntimeException(e);
-                    }
-                    responsePool.execute(() -> {
-                        try {
-                            response(answer, sock);
-                            logger.info("Отправлен ответ " + sock.getRemoteSocketAddress() + ".");
-                        } catch (IOException | SQLException e) {
-                            throw new RuntimeException(e);
-                        }
-                    });
-                });
+                ExecutorService pool = (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+                logger.info("Команды исполняются в виртуальных потоках.");
+                return pool;
+            } catch (ReflectiveOperationException e) {
+                logger.warn("Виртуальные потоки недоступны в Java " + Runtime.version().feature() + ", используется пул потоков платформы.");
+            }
+        } else if (!mode.equals("platform")) {
+            logger.warn("Неизвестный режим исполнения " + mode + ", используется пул потоков платформы.");
+        }
+        return new ThreadPoolExecutor(10, 10, 0, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(queueCapacity));
+    }
 
-            } catch (IOException e) {
-                e.printStackTrace();
-            } catch (ClassNotFoundException e) {
-                throw new RuntimeException(e);
+    /**
+     * Передает полностью прочитанную команду на исполнение и ставит ответ в очередь на отправку.
+     * <br>Пакетные команды {@link Command#isOrdered} ставятся в очередь сессии и исполняются одной задачей строго по порядку,
+     * поэтому весь пакет сессии занимает одно место из {@link Server#maxInFlight}
+     *
+     * @param connection сессия, от которой пришла команда
+     * @param id         id запроса, с которым будет отправлен ответ
+     * @param command    объект класса {@link Command}
+     */
+    public void connectionAcceptance(ClientConnection connection, long id, Command command) {
+        logger.info("Получена команда " + String.join(" ", command.getCommand()) + ". От " + connection.getAddress() + ".");
+        long received = System.nanoTime();
+        if (command.isOrdered()) {
+            if (connection.offerOrdered(new ClientConnection.OrderedRequest(id, command, received)) && !submit(() -> drainOrdered(connection))) {
+                ClientConnection.OrderedRequest request;
+                while ((request = connection.pollOrdered()) != null) reject(connection, request.id(), request.command());
             }
-        });
-        logger.info(sock.getRemoteSocketAddress() + " отключился.");
+            return;
+        }
+        if (!submit(() -> process(connection, id, command, received))) reject(connection, id, command);
     }
 
-    public void mainLoop() throws IOException, SQLException {
-        logger.info("Сервер запущен.");
-        Runnable accept = () -> {
-            while (!Thread.currentThread().isInterrupted()) {
-                Socket sock;
+    /**
+     * Ставит задачу в пул исполнения, если число исполняемых команд не превышает {@link Server#maxInFlight}
+     *
+     * @return возвращает false, если сервер перегружен и задача не принята
+     */
+    private boolean submit(Runnable task) {
+        if (inFlight.incrementAndGet() > maxInFlight) {
+            inFlight.decrementAndGet();
+            return false;
+        }
+        try {
+            processingPool.execute(() -> {
                 try {
-                    sock = serv.accept();
-                    connectionAcceptance(sock);
-                } catch (IOException e) {
-                    break;
+                    task.run();
+                } finally {
+                    inFlight.decrementAndGet();
+                }
+            });
+            return true;
+        } catch (RejectedExecutionException e) {
+            inFlight.decrementAndGet();
+            return false;
+        }
+    }
+
+    /**
+     * Исполняет пакетные команды сессии по одной, пока ее очередь не опустеет.
+     * Если исполнение прервано ошибкой, сессия закрывается: иначе ее очередь осталась бы помеченной исполняемой и больше не исполнялась
+     */
+    private void drainOrdered(ClientConnection connection) {
+        ClientConnection.OrderedRequest request;
+        boolean drained = false;
+        try {
+            while ((request = connection.pollOrdered()) != null)
+                process(connection, request.id(), request.command(), request.received());
+            drained = true;
+        } finally {
+            if (!drained) connection.close();
+        }
+    }
+
+    /**
+     * Исполняет команду и отправляет ответ. Команда, пролежавшая в очереди дольше, чем клиент ждет ответа, не исполняется.
+     * <br>Результаты команд {@link Server#CACHEABLE} берутся из кэша {@link Server#resultCache}, если коллекция с тех пор не менялась
+     *
+     * @param received время получения команды (System.nanoTime)
+     */
+    private void process(ClientConnection connection, long id, Command command, long received) {
+        if (!connection.isOpen()) return;
+        Answer answer;
+        try {
+            if (command.getCommand().length == 0) {
+                send(connection, id, new Answer("Пустая команда", false));
+                return;
+            }
+            if (command.getTimeout() > 0 && System.nanoTime() - received > TimeUnit.MILLISECONDS.toNanos(command.getTimeout())) {
+                logger.warn("Команда " + command.getCommand()[0] + " от " + connection.getAddress() + " пролежала в очереди дольше, чем клиент ждет ответа, и не будет исполнена.");
+                return;
+            }
+            String key = CACHEABLE.contains(command.getCommand()[0]) ? ResultCache.key(connection.getCodec(), command) : null;
+            long version = sqlt.getVersion();
+            ResponseStream out = new ResponseStream(connection, id, command.isStructured(), key == null ? -1 : resultCache.getMaxResultBytes());
+            if (key != null) {
+                ResultCache.Result cached = resultCache.get(key, version);
+                if (cached != null) {
+                    out.replay(cached.chunks());
+                    connection.send(new Frame(Frame.RESPONSE, id, cached.answer()));
+                    logger.info("Отправлен ответ из кэша " + connection.getAddress() + ".");
+                    return;
                 }
             }
-        };
-        Thread thread = new Thread(accept);
-        thread.start();
+            answer = commandExecution(command, out);
+            if (key != null && out.getRecorded() != null) {
+                byte[] payload = out.getCodec().encodeAnswer(answer);
+                resultCache.put(key, new ResultCache.Result(version, out.getRecorded(), payload));
+                connection.send(new Frame(Frame.RESPONSE, id, payload));
+                logger.info("Отправлен ответ " + connection.getAddress() + ".");
+                return;
+            }
+        } catch (IOException e) {
+            logger.warn("Не удалось отправить ответ " + connection.getAddress() + ": " + e.getMessage());
+            return;
+        } catch (SQLException | RuntimeException e) {
+            logger.error("Ошибка при исполнении команды " + String.join(" ", command.getCommand()) + ": " + e.getMessage());
+            answer = new Answer("error", false);
+        }
+        send(connection, id, answer);
+    }
+
+    /**
+     * Отправляет билеты элементов частями {@link ResponseStream}. Билет {@link TicketEntry#ticket} создается только перед добавлением в часть,
+     * поэтому в памяти одновременно не больше одной части ответа
+     *
+     * @param separator строка после каждого билета в текстовом виде
+     * @return возвращает завершающий ответ {@link ResponseStream#finish}
+     */
+    private static Answer send(Stream<TicketEntry> entries, ResponseStream out, String separator) throws IOException {
+        Iterator<TicketEntry> it = entries.iterator();
+        while (it.hasNext()) out.append(it.next().ticket(), separator);
+        return out.finish();
+    }
+
+    /**
+     * Сразу отвечает клиенту, что сервер перегружен, не ставя команду в очередь
+     */
+    private void reject(ClientConnection connection, long id, Command command) {
+        logger.warn("Сервер перегружен, команда " + String.join(" ", command.getCommand()) + " от " + connection.getAddress() + " отклонена.");
+        send(connection, id, new Answer("Сервер перегружен, повторите запрос позже", false));
+    }
+
+    private void send(ClientConnection connection, long id, Answer answer) {
+        try {
+            connection.send(id, answer);
+            logger.info("Отправлен ответ " + connection.getAddress() + ".");
+        } catch (IOException e) {
+            logger.warn("Не удалось отправить ответ " + connection.getAddress() + ": " + e.getMessage());
+            connection.close();
+        }
+    }
+
+    public void mainLoop() throws IOException, SQLException {
+        logger.info("Сервер запущен.");
+        // Снимки пишутся только после загрузки коллекции, иначе снимок недогруженной коллекции получил бы актуальную метку
+        if (snapshotFile != null && snapshotInterval > 0)
+            snapshotWriter.scheduleWithFixedDelay(this::saveSnapshot, snapshotInterval, snapshotInterval, TimeUnit.SECONDS);
+        snapshotWriter.scheduleWithFixedDelay(this::compactChanges, COMPACTION_INTERVAL, COMPACTION_INTERVAL, TimeUnit.SECONDS);
+        reactors[0].listen(serv, reactors);
+        for (Reactor reactor : reactors) reactor.start();
         while (true) {
             try {
                 Scanner in = new Scanner(System.in);
                 switch (in.next()) {
                     case ("exit") -> {
                         logger.info("Сервер выключен.");
-                        exit(thread);
+                        exit();
                     }
+                    case ("cache") -> logger.info("Кэш результатов: " + resultCache.getStats());
                     case ("clear") -> {
                         String resp = sqlt.clearAll();
                         if (resp.equals("OK")) logger.info("Коллекция очищена");
@@ -124,36 +309,108 @@ public class Server {
                 }
             } catch (NoSuchElementException err) {
                 logger.warn("Экстренное выключение сервера.");
-                exit(thread);
+                exit();
             }
         }
     }
-    private void exit(Thread thread) throws SQLException, IOException {
-        thread.interrupt();
-        sqlt.exit();
+    /**
+     * Выключает сервер. Снимок и хранилище коллекции закрываются только после того, как исполняемые команды завершились:
+     * иначе команда, уже зафиксированная в базе данных, могла бы изменить коллекцию после снимка
+     */
+    private void exit() throws IOException {
+        for (Reactor reactor : reactors) reactor.stop();
         processingPool.shutdown();
+        try {
+            if (!processingPool.awaitTermination(SHUTDOWN_TIMEOUT, TimeUnit.SECONDS))
+                logger.warn("Команды не завершились за " + SHUTDOWN_TIMEOUT + " с, их изменения будут дочитаны из журнала при следующем запуске.");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        snapshotWriter.shutdown();
+        saveSnapshot();
+        sqlt.exit();
         serv.close();
         System.exit(0);
     }
+    /**
+     * Записывает снимок коллекции в {@link Server#snapshotFile}, если коллекция изменилась с прошлого снимка.
+     * Вызывается периодически потоком {@link Server#snapshotWriter} и при выключении сервера
+     */
+    private synchronized void saveSnapshot() {
+        if (snapshotFile == null) return;
+        long version = sqlt.getVersion();
+        if (version == snapshotVersion) return;
+        long start = System.nanoTime();
+        String[] resp = sqlt.saveSnapshot(snapshotFile).split("/", 2);
+        if (resp[0].equals("OK")) {
+            snapshotVersion = version;
+            logger.info(String.format("Снимок коллекции записан в %s: %s билетов за %d мс", snapshotFile, resp[1], (System.nanoTime() - start) / 1_000_000));
+        } else {
+            logger.warn(resp[0] + (resp.length > 1 ? " " + resp[1] : ""));
+        }
+    }
+
+    /**
+     * Сжимает журнал изменений {@link SQLTickets#compactChanges}. Вызывается периодически потоком {@link Server#snapshotWriter},
+     * поэтому журнал не растет без ограничений, даже если снимки пишутся только при выключении сервера
+     */
+    private void compactChanges() {
+        String[] resp = sqlt.compactChanges().split("/", 2);
+        if (!resp[0].equals("OK")) logger.warn(resp[0] + " " + resp[1]);
+        else if (!resp[1].equals("0")) logger.info("Журнал изменений сжат, удалено записей: " + resp[1]);
+    }
+
+    /**
+     * Загружает коллекцию при запуске сервера. Коллекция, восстановленная из файлов хранилища, дополняется билетами, измененными после выключения {@link SQLTickets#replayChanges}.
+     * Иначе сервер сначала пробует снимок {@link SQLTickets#loadSnapshot} и дочитывает из базы данных только билеты, измененные после него.
+     * Если ни то, ни другое непригодно, коллекция загружается из базы данных полностью
+     */
     public void createTQ() throws SQLException {
+        long start = System.nanoTime();
+        if (sqlt.isRecovered()) {
+            String replay = sqlt.replayChanges();
+            if (replay.startsWith("OK/")) {
+                logger.info(String.format("Коллекция восстановлена из файлов хранилища: %d билетов, изменено после выключения - %s, за %d мс", sqlt.size(),
+                        replay.substring(3), (System.nanoTime() - start) / 1_000_000));
+                return;
+            }
+            logger.warn(replay + ". Коллекция из файлов хранилища не используется");
+            start = System.nanoTime();
+        }
+        if (snapshotFile != null) {
+            String snapshot = sqlt.loadSnapshot(snapshotFile);
+            long elapsed = System.nanoTime() - start;
+            if (snapshot.startsWith("OK/")) {
+                logger.info(String.format("Коллекция восстановлена из снимка %s: %d билетов, изменено после снимка - %s, за %d мс", snapshotFile, sqlt.size(),
+                        snapshot.substring(3), elapsed / 1_000_000));
+                return;
+            }
+            logger.warn(snapshot + ". Коллекция загружается из базы данных полностью");
+            start = System.nanoTime();
+        }
         String resp = sqlt.loadTickets();
-        if (resp.equals("OK")) logger.info("Загрузка коллекции из базы данных прошла успешно");
+        long elapsed = System.nanoTime() - start;
+        if (resp.equals("OK"))
+            logger.info(String.format("Загрузка коллекции из базы данных прошла успешно: %d билетов за %d мс, %.0f строк/с", sqlt.size(),
+                    elapsed / 1_000_000, sqlt.size() * 1e9 / Math.max(elapsed, 1)));
         else logger.warn(resp);
     }
 
     /**
      * Исполнение команд не требующих создания объекта класса {@link Ticket}.<br>
-     * Команды - <b>show</b>, <b>clear</b>, <b>remove_first</b>, <b>remove_at</b>, <b>remove_by_id</b>, <b>min_by_venue</b>, <b>filter_contains_name</b>, <b>filter_less_than_price</b>, <b>filter_by_price</b>, <b>save</b>, <b>info</b>, <b>count_greater_than_type</b>, <b>print_field_ascending_type</b>
+     * Команды - <b>show</b>, <b>clear</b>, <b>remove_first</b>, <b>remove_at</b>, <b>remove_by_id</b>, <b>min_by_venue</b>, <b>filter_contains_name</b>, <b>filter_less_than_price</b>, <b>filter_by_price</b>, <b>filter_price_between</b>, <b>save</b>, <b>info</b>, <b>count_greater_than_type</b>, <b>print_field_ascending_type</b>
+     *
+     * <br>Результаты команд <b>show</b>, <b>filter_*</b> и <b>print_field_ascending_type</b> отправляются частями через {@link ResponseStream} по мере формирования.
+     * Если клиент запросил билеты в компактном виде {@link Command#isStructured}, они передаются рекордами {@link ticket.TicketRecord}, а текст строит клиент
      *
      * @param command объект класса {@link Command}
+     * @param out     поток частей ответа
      * @return возвращает объект класса {@link Answer} для отправки клиенту
      */
-    public Answer commandExecution(Command command) throws SQLException {
+    public Answer commandExecution(Command command, ResponseStream out) throws SQLException, IOException {
         switch (command.getCommand()[0]) {
             case ("show"):
-                StringBuilder str = new StringBuilder();
-                sqlt.getAll().forEach(t -> str.append(t).append("\n"));
-                return new Answer(str.toString(), false);
+                return send(sqlt.getAll(), out, "\n");
             case ("clear"):
                 String[] resp = sqlt.clear(command.getName()).split("/");
                 if (resp[0].equals("OK")) return new Answer("Все созданные вами объекты удалены из БД", true);
@@ -197,28 +454,30 @@ public class Server {
             case ("min_by_venue"):
                 return new Answer(sqlt.getMinByVenue(), false);
             case ("filter_contains_name"):
-                StringBuilder sb = new StringBuilder();
                 String name;
                 if (command.getCommand().length > 1) name = command.getCommand()[1];
                 else name = "";
-                for (Ticket t : sqlt.filterContainsName(name)) sb.append(t.toString());
-                return new Answer(sb.toString(), false);
+                return send(sqlt.filterContainsName(name), out, "");
             case ("filter_less_than_price"):
-                sb = new StringBuilder();
                 int price = Integer.parseInt(command.getCommand()[1]);
-                for (Ticket t : sqlt.filterLessThanPrice(price)) sb.append(t.toString());
-                return new Answer(sb.toString(), false);
+                return send(sqlt.filterLessThanPrice(price), out, "");
             case ("filter_by_price"):
-                sb = new StringBuilder();
                 price = Integer.parseInt(command.getCommand()[1]);
-                for (Ticket t : sqlt.filterByPrice(price)) sb.append(t.toString());
-                return new Answer(sb.toString(), false);
+                return send(sqlt.filterByPrice(price), out, "");
+            case ("filter_price_between"):
+                int min = Integer.parseInt(command.getCommand()[1]), max = Integer.parseInt(command.getCommand()[2]);
+                return send(sqlt.filterPriceBetween(min, max), out, "");
             case ("info"):
                 return new Answer(sqlt.getInfo(), false);
             case ("count_greater_than_type"):
                 return new Answer(String.valueOf(sqlt.getCountGreaterThanType(TicketType.valueOf(command.getCommand()[1]))), false);
             case ("print_field_ascending_type"):
-                return new Answer(sqlt.getFieldAscendingType(), false);
+                Iterator<TicketEntry> entries = sqlt.getAscendingType().iterator();
+                while (entries.hasNext()) {
+                    TicketEntry e = entries.next();
+                    out.append("id:" + e.id() + " - type:" + e.type() + "\n");
+                }
+                return out.finish();
             case ("sign_up"):
                 resp = authorizer.addUser(command.getName(), command.getPassword()).split("/");
                 if (resp[0].equals("OK")) {
@@ -266,6 +525,10 @@ public class Server {
                 else {
                     return new Answer(resp[0], false);
                 }
+            case ("import"):
+                Answer imported = importer.importFile(command.getCommand()[1], command.getName(), out);
+                logger.info("Загрузка из файла " + command.getCommand()[1] + ": " + imported.text().split("\n")[0]);
+                return imported;
             case ("remove_lower"):
                 resp = sqlt.removeLower(command.getTicketBuilder(), command.getName()).split("/");
                 if (resp[0].matches("^[0-9]+$")) return new Answer("Удалено " + resp[0] + " элементов", false);
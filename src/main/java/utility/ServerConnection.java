@@ -0,0 +1,252 @@
+package utility;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.*;
+import java.util.function.Consumer;
+
+import static java.lang.Thread.sleep;
+
+/**
+ * Долгоживущая сессия клиентского приложения с сервером {@link Server}.
+ * <br>Все команды передаются через одно подключение, каждая в своем кадре {@link Frame} с уникальным id, по которому сопоставляются ответы.
+ * <br>Пока пользователь ничего не отправляет, фоновый поток раз в {@link ServerConnection#HEARTBEAT_INTERVAL} мс посылает серверу пинг.
+ * Если сервер на него не ответил, сессия закрывается и при следующей команде открывается новая
+ */
+public class ServerConnection implements Closeable {
+    /**
+     * Время в мс, в течение которого ожидается очередная порция ответа. Пока байты ответа продолжают приходить, ожидание продлевается,
+     * поэтому большие ответы не обрываются
+     */
+    public static final long TIMEOUT = 2000;
+    /**
+     * Период в мс, с которым в простое отправляется пинг. Должен быть меньше {@link Reactor#IDLE_TIMEOUT}
+     */
+    public static final long HEARTBEAT_INTERVAL = 10000;
+    private final SocketChannel sock;
+    /**
+     * Селектор, с помощью которого ожидаются данные от сервера
+     */
+    private final Selector selector;
+    /**
+     * Способ кодирования команд и ответов
+     */
+    private final Codec codec;
+    private final FrameBuffer input = new FrameBuffer(FrameBuffer.MAX_FRAME);
+    private long nextId = 1;
+    /**
+     * id запросов, ответы на которые еще ожидаются
+     */
+    private final Set<Long> pending = new HashSet<>();
+    /**
+     * Полученные, но еще не забранные ответы
+     */
+    private final Map<Long, Frame> arrived = new HashMap<>();
+    /**
+     * Полученные, но еще не переданные обработчику части ответов. Заполняется, пока ожидается ответ на более ранний запрос
+     */
+    private final Map<Long, List<Frame>> arrivedChunks = new HashMap<>();
+    /**
+     * Время (System.currentTimeMillis) последней записи в подключение
+     */
+    private long lastWrite = System.currentTimeMillis();
+    private final Thread heartbeat;
+
+    public ServerConnection(int port, Codec codec) throws IOException {
+        this.codec = codec;
+        sock = SocketChannel.open(new InetSocketAddress(port));
+        sock.configureBlocking(false);
+        selector = Selector.open();
+        sock.register(selector, SelectionKey.OP_READ);
+        heartbeat = new Thread(this::heartbeatLoop, "heartbeat");
+        heartbeat.setDaemon(true);
+        heartbeat.start();
+    }
+
+    /**
+     * Отправляет команду и ждет ответ на нее
+     *
+     * @param command объект класса {@link Command}
+     * @return возвращает ответ сервера или null, если сервер молчал дольше {@link ServerConnection#TIMEOUT} мс
+     */
+    public Answer request(Command command) throws IOException {
+        return request(command, chunk -> {
+        });
+    }
+
+    /**
+     * Отправляет команду и ждет ответ на нее. Части ответа {@link Frame#CHUNK} передаются обработчику по мере получения
+     *
+     * @param command объект класса {@link Command}
+     * @param onChunk обработчик частей ответа
+     * @return возвращает завершающую часть ответа сервера или null, если сервер молчал дольше {@link ServerConnection#TIMEOUT} мс
+     */
+    public synchronized Answer request(Command command, Consumer<Answer> onChunk) throws IOException {
+        command.setTimeout(TIMEOUT);
+        long id = nextId++;
+        send(new Frame(Frame.REQUEST, id, codec.encodeCommand(command)));
+        Frame frame = await(id, onChunk);
+        return frame == null ? null : codec.decodeAnswer(frame.payload());
+    }
+
+    /**
+     * Отправляет пинг и ждет на него ответ
+     *
+     * @return возвращает true, если сервер ответил
+     */
+    public synchronized boolean ping() throws IOException {
+        long id = nextId++;
+        send(new Frame(Frame.PING, id));
+        return await(id, chunk -> {
+        }) != null;
+    }
+
+    /**
+     * Отправляет команды друг за другом одной записью, не дожидаясь ответов, и затем принимает ответы в порядке отправки.
+     * <br>Команды помечаются как пакетные {@link Command#setOrdered}, поэтому сервер исполняет их строго по очереди.
+     * Ожидание ответа продлевается, пока от сервера приходят данные, поэтому у команд пакета нет собственного срока ожидания
+     *
+     * @param commands команды пакета
+     * @param onChunk  обработчик частей ответов
+     * @param onAnswer обработчик завершающих частей ответов, вызывается в порядке команд
+     * @return возвращает число команд, на которые получен ответ. Если сервер замолчал, оставшиеся ответы не ждутся
+     */
+    public synchronized int requestAll(List<Command> commands, Consumer<Answer> onChunk, Consumer<Answer> onAnswer) throws IOException {
+        long first = nextId;
+        List<ByteBuffer> frames = new ArrayList<>(commands.size());
+        int size = 0;
+        for (Command command : commands) {
+            command.setTimeout(0);
+            command.setOrdered(true);
+            ByteBuffer frame = new Frame(Frame.REQUEST, nextId++, codec.encodeCommand(command)).encode();
+            frames.add(frame);
+            size += frame.remaining();
+        }
+        ByteBuffer batch = ByteBuffer.allocate(size);
+        for (ByteBuffer frame : frames) batch.put(frame);
+        batch.flip();
+        for (long id = first; id < nextId; id++) pending.add(id);
+        try {
+            write(batch);
+            for (int i = 0; i < commands.size(); i++) {
+                Frame frame = await(first + i, onChunk);
+                if (frame == null) return i;
+                onAnswer.accept(codec.decodeAnswer(frame.payload()));
+            }
+            return commands.size();
+        } finally {
+            for (long id = first; id < nextId; id++) pending.remove(id);
+        }
+    }
+
+    private void send(Frame frame) throws IOException {
+        pending.add(frame.id());
+        write(frame.encode());
+    }
+
+    /**
+     * Записывает буфер целиком. Если сокет не принимает данные, ждет в селекторе и тем временем читает ответы сервера,
+     * чтобы сервер, который сам ждет, пока клиент прочитает ответы, не заблокировал запись
+     */
+    private void write(ByteBuffer buf) throws IOException {
+        SelectionKey key = sock.keyFor(selector);
+        long deadline = System.currentTimeMillis() + TIMEOUT;
+        try {
+            while (buf.hasRemaining()) {
+                if (sock.write(buf) > 0) {
+                    deadline = System.currentTimeMillis() + TIMEOUT;
+                    continue;
+                }
+                long left = deadline - System.currentTimeMillis();
+                if (left <= 0) throw new IOException("Сервер не принимает данные");
+                key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+                if (selector.select(left) == 0) continue;
+                selector.selectedKeys().clear();
+                if (readAvailable()) deadline = System.currentTimeMillis() + TIMEOUT;
+            }
+        } finally {
+            if (key.isValid()) key.interestOps(SelectionKey.OP_READ);
+        }
+        lastWrite = System.currentTimeMillis();
+    }
+
+    /**
+     * Читает кадры из подключения, пока не придет завершающий кадр с указанным id. Ожидание данных происходит в селекторе,
+     * поэтому ответ возвращается сразу после получения его последнего байта
+     *
+     * @return возвращает кадр или null, если сервер молчал дольше {@link ServerConnection#TIMEOUT} мс
+     */
+    private Frame await(long id, Consumer<Answer> onChunk) throws IOException {
+        long deadline = System.currentTimeMillis() + TIMEOUT;
+        try {
+            while (true) {
+                List<Frame> chunks = arrivedChunks.remove(id);
+                if (chunks != null) for (Frame chunk : chunks) onChunk.accept(codec.decodeAnswer(chunk.payload()));
+                if (arrived.containsKey(id)) return arrived.remove(id);
+                long left = deadline - System.currentTimeMillis();
+                if (left <= 0) return null;
+                if (selector.select(left) == 0) continue;
+                selector.selectedKeys().clear();
+                if (readAvailable()) deadline = System.currentTimeMillis() + TIMEOUT;
+            }
+        } finally {
+            pending.remove(id);
+            arrivedChunks.remove(id);
+        }
+    }
+
+    /**
+     * Читает доступные байты и раскладывает пришедшие кадры ожидаемых запросов по {@link ServerConnection#arrived} и {@link ServerConnection#arrivedChunks}
+     *
+     * @return возвращает true, если были прочитаны какие-то байты
+     */
+    private boolean readAvailable() throws IOException {
+        boolean progress = false;
+        int n;
+        while ((n = input.readFrom(sock)) > 0) progress = true;
+        if (n == -1) throw new EOFException("Сервер закрыл соединение");
+        Frame frame;
+        while ((frame = input.next()) != null) {
+            if (!pending.contains(frame.id())) continue;
+            if (frame.type() == Frame.CHUNK) arrivedChunks.computeIfAbsent(frame.id(), k -> new ArrayList<>()).add(frame);
+            else arrived.put(frame.id(), frame);
+        }
+        return progress;
+    }
+
+    private void heartbeatLoop() {
+        try {
+            while (sock.isOpen()) {
+                sleep(1000);
+                synchronized (this) {
+                    if (System.currentTimeMillis() - lastWrite < HEARTBEAT_INTERVAL) continue;
+                    if (!ping()) close();
+                }
+            }
+        } catch (IOException | ClosedSelectorException e) {
+            close();
+        } catch (InterruptedException ignored) {
+        }
+    }
+
+    public boolean isOpen() {
+        return sock.isOpen();
+    }
+
+    @Override
+    public void close() {
+        heartbeat.interrupt();
+        try {
+            selector.close();
+            sock.close();
+        } catch (IOException ignored) {
+        }
+    }
+}
@@ -0,0 +1,176 @@
+package utility;
+
+import ticket.*;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.DateTimeException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.IntStream;
+import java.util.zip.CRC32C;
+
+/**
+ * Двоичный файл снимка коллекции, по которому сервер запускается без полной загрузки из базы данных.
+ * <br>Файл состоит из заголовка {@link SnapshotFile#HEADER} байт, записей элементов в порядке коллекции: размер билета {@link TicketEntry#size}
+ * и сам билет в формате {@link BinaryCodec.Writer#writeTicketRecord}, и упорядоченных представлений снимка - номеров записей в порядках
+ * bySize, byPrice, byRank и byVenue. Все порядки при равенстве упорядочены по номеру добавления, а записи идут в порядке добавления,
+ * поэтому при загрузке представления собираются по номерам без сортировки.
+ * Заголовок хранит число элементов, наибольший id билета, метку журнала изменений базы данных, до которой снимок актуален, и контрольную сумму.
+ * <br>Файл пишется во временный файл рядом и заменяет прежний одним переименованием, поэтому прерванная запись не портит прежний снимок.
+ * Читается файл через отображение в память {@link FileChannel#map}
+ */
+public class SnapshotFile {
+    /**
+     * Размер заголовка в байтах
+     */
+    public static final int HEADER = 40;
+    private static final int MAGIC = 0x54534E31;
+    private static final int FORMAT = 1;
+    /**
+     * Число упорядоченных представлений в файле
+     */
+    private static final int ORDERS = 4;
+    /**
+     * Размер части записей, которая накапливается в памяти перед записью в файл
+     */
+    private static final int WRITE_BUFFER = 1 << 16;
+
+    // Смещения полей в заголовке
+    private static final int H_MAGIC = 0, H_FORMAT = 4, H_COUNT = 8, H_MAX_ID = 16, H_MARK = 24, H_CHECKSUM = 32;
+
+    /**
+     * Рекорд прочитанного снимка
+     *
+     * @param tickets билеты в порядке коллекции
+     * @param sizes   размеры билетов {@link TicketVector#serializedSize} в том же порядке
+     * @param orders  номера билетов в порядках bySize, byPrice, byRank и byVenue {@link TicketVector.Snapshot}
+     * @param maxId   наибольший id билета в снимке или 0, если снимок пуст
+     * @param mark    метка журнала изменений, до которой снимок актуален
+     */
+    public record Contents(List<Ticket> tickets, int[] sizes, int[][] orders, long maxId, long mark) {
+        /**
+         * @param ids id билетов, которые нужно убрать
+         * @return возвращает снимок без билетов с указанными id. Порядки остаются упорядоченными, номера в них пересчитываются
+         */
+        public Contents without(LongIndex ids) {
+            int[] renumbered = new int[tickets.size()];
+            List<Ticket> kept = new ArrayList<>(tickets.size());
+            int[] keptSizes = new int[tickets.size()];
+            for (int i = 0; i < tickets.size(); i++) {
+                if (ids.contains(tickets.get(i).getId())) {
+                    renumbered[i] = -1;
+                    continue;
+                }
+                renumbered[i] = kept.size();
+                keptSizes[kept.size()] = sizes[i];
+                kept.add(tickets.get(i));
+            }
+            if (kept.size() == tickets.size()) return this;
+            int[][] keptOrders = new int[orders.length][];
+            for (int o = 0; o < orders.length; o++)
+                keptOrders[o] = IntStream.of(orders[o]).map(i -> renumbered[i]).filter(i -> i >= 0).toArray();
+            return new Contents(kept, Arrays.copyOf(keptSizes, kept.size()), keptOrders, maxId, mark);
+        }
+    }
+
+    /**
+     * Записывает снимок коллекции в файл
+     *
+     * @param file     файл снимка
+     * @param snapshot снимок коллекции
+     * @param mark     метка журнала изменений, до которой снимок актуален
+     */
+    public static void write(Path file, TicketVector.Snapshot snapshot, long mark) throws IOException {
+        Path parent = file.toAbsolutePath().getParent();
+        if (parent != null) Files.createDirectories(parent);
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        long maxId = 0;
+        CRC32C checksum = new CRC32C();
+        try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            channel.position(HEADER);
+            BinaryCodec.Writer w = new BinaryCodec.Writer(WRITE_BUFFER + 1024);
+            for (TicketEntry e : snapshot.entries()) {
+                Ticket ticket = e.ticket();
+                maxId = Math.max(maxId, ticket.getId());
+                w.writeVarInt(e.size());
+                w.writeTicketRecord(TicketRecord.of(ticket));
+                if (w.size() >= WRITE_BUFFER) flush(channel, w, checksum);
+            }
+            List<ChunkedList<TicketEntry>> orders = List.of(snapshot.bySize(), snapshot.byPrice(), snapshot.byRank(), snapshot.byVenue());
+            for (ChunkedList<TicketEntry> order : orders) {
+                for (TicketEntry e : order) {
+                    w.writeVarInt(snapshot.entries().indexOf(TicketEntry::seq, e.seq()));
+                    if (w.size() >= WRITE_BUFFER) flush(channel, w, checksum);
+                }
+            }
+            flush(channel, w, checksum);
+            ByteBuffer header = ByteBuffer.allocate(HEADER).putInt(H_MAGIC, MAGIC).putInt(H_FORMAT, FORMAT).putInt(H_COUNT, snapshot.size())
+                    .putLong(H_MAX_ID, maxId).putLong(H_MARK, mark).putLong(H_CHECKSUM, checksum.getValue());
+            while (header.hasRemaining()) channel.write(header, header.position());
+            channel.force(true);
+        }
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static void flush(FileChannel channel, BinaryCodec.Writer w, CRC32C checksum) throws IOException {
+        checksum.update(w.buffer());
+        ByteBuffer data = w.buffer();
+        while (data.hasRemaining()) channel.write(data);
+        w.reset();
+    }
+
+    /**
+     * Читает снимок из файла. Перед разбором записей проверяется контрольная сумма
+     *
+     * @param file файл снимка
+     * @return возвращает содержимое снимка
+     * @throws IOException если файла нет, он поврежден или записан в другом формате
+     */
+    public static Contents read(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long length = channel.size();
+            if (length < HEADER) throw new IOException("Файл снимка короче заголовка");
+            if (length > Integer.MAX_VALUE) throw new IOException("Файл снимка больше 2 ГБ");
+            MappedByteBuffer map = channel.map(FileChannel.MapMode.READ_ONLY, 0, length);
+            if (map.getInt(H_MAGIC) != MAGIC || map.getInt(H_FORMAT) != FORMAT) throw new IOException("Неизвестный формат файла снимка");
+            int count = map.getInt(H_COUNT);
+            CRC32C checksum = new CRC32C();
+            checksum.update(map.slice().position(HEADER));
+            if (checksum.getValue() != map.getLong(H_CHECKSUM)) throw new IOException("Не совпала контрольная сумма снимка");
+            if (count < 0 || count > length - HEADER) throw new IOException("Неверное число элементов снимка");
+            BinaryCodec.Reader r = new BinaryCodec.Reader(map.position(HEADER));
+            List<Ticket> tickets = new ArrayList<>(count);
+            int[] sizes = new int[count];
+            int[][] orders = new int[ORDERS][count];
+            try {
+                for (int i = 0; i < count; i++) {
+                    sizes[i] = r.readVarInt();
+                    TicketRecord t = r.readTicketRecord();
+                    tickets.add(new Ticket(t.id(), t.name(), new Coordinates(t.x(), t.y()), t.creationDate(), t.price(), t.type(),
+                            new Venue(t.id(), t.name(), t.venueCapacity(), t.venueType(), new Address(t.street(), t.zipCode()))));
+                }
+                for (int[] order : orders) {
+                    boolean[] seen = new boolean[count];
+                    for (int i = 0; i < count; i++) {
+                        order[i] = r.readVarInt();
+                        if (order[i] < 0 || order[i] >= count || seen[order[i]]) throw new IOException("Упорядоченное представление снимка не перестановка");
+                        seen[order[i]] = true;
+                    }
+                }
+            } catch (BufferUnderflowException | IndexOutOfBoundsException | IllegalArgumentException | DateTimeException e) {
+                throw new IOException("Поврежден файл снимка", e);
+            }
+            if (map.hasRemaining()) throw new IOException("Лишние данные в конце файла снимка");
+            return new Contents(tickets, sizes, orders, map.getLong(H_MAX_ID), map.getLong(H_MARK));
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package utility;
+
+import ticket.Ticket;
+import ticket.TicketType;
+
+import java.util.Comparator;
+
+/**
+ * Рекорд элемента коллекции {@link TicketVector}. Сам билет лежит в хранилище {@link TicketStore}, элемент ссылается на его строку
+ *
+ * @param seq   порядковый номер добавления. Элементы коллекции всегда упорядочены по нему, поэтому элемент находится двоичным поиском
+ * @param store хранилище билета
+ * @param row   номер строки билета в хранилище
+ * @param size  размер билета в байтах в Java-сериализации. Вычисляется один раз при добавлении {@link TicketVector#serializedSize}
+ */
+public record TicketEntry(long seq, TicketStore store, int row, int size) {
+    /**
+     * Граница порядковых номеров: номер занимает младшие 32 бита ключа {@link TicketEntry#priceKey} и хранится как int в списках {@link NameIndex}.
+     * Когда номера доходят до нее, коллекция перенумеровывает элементы {@link TicketVector.Snapshot#withRenumberedSeqs}
+     */
+    public static final long MAX_SEQ = 1L << 31;
+    /**
+     * Порядок {@link Ticket#compareTo} в виде отношения полного порядка: сначала тип по убыванию, затем цена, затем вместимость места назначения.
+     * Если compareTo считает один билет строго больше другого, то и в этом порядке он больше
+     */
+    public static final Comparator<TicketEntry> BY_RANK = Comparator.<TicketEntry>comparingInt(e -> -e.type().ordinal())
+            .thenComparingInt(TicketEntry::price)
+            .thenComparingLong(TicketEntry::capacity);
+    /**
+     * Порядок {@link TicketEntry#BY_RANK}, при равенстве - порядок добавления
+     */
+    public static final Comparator<TicketEntry> BY_RANK_SEQ = BY_RANK.thenComparingLong(TicketEntry::seq);
+    /**
+     * Порядок по вместимости места назначения {@link ticket.Venue#compareTo}, при равенстве - порядок добавления
+     */
+    public static final Comparator<TicketEntry> BY_VENUE = Comparator.comparingLong(TicketEntry::capacity)
+            .thenComparingLong(TicketEntry::seq);
+
+    /**
+     * @return возвращает билет из хранилища {@link TicketStore#get}
+     */
+    public Ticket ticket() {
+        return store.get(row);
+    }
+
+    public long id() {
+        return store.id(row);
+    }
+
+    public String name() {
+        return store.name(row);
+    }
+
+    public int price() {
+        return store.price(row);
+    }
+
+    public TicketType type() {
+        return store.type(row);
+    }
+
+    /**
+     * @return возвращает вместимость места назначения
+     */
+    public long capacity() {
+        return store.capacity(row);
+    }
+
+    /**
+     * @return возвращает ключ порядка по размеру: сначала размер, при равных размерах - порядок добавления
+     */
+    public long sizeKey() {
+        return (long) size << 40 | seq;
+    }
+
+    /**
+     * @return возвращает ключ порядка по цене: сначала цена, при равных ценах - порядок добавления.
+     * Цена положительна и занимает старшие 32 бита, поэтому порядковому номеру остаются младшие 32 бита, он меньше {@link TicketEntry#MAX_SEQ}
+     */
+    public long priceKey() {
+        return (long) price() << 32 | seq;
+    }
+
+    /**
+     * @return возвращает наименьший ключ порядка по цене для билетов с указанной ценой
+     */
+    public static long priceKey(int price) {
+        return (long) price << 32;
+    }
+}
@@ -0,0 +1,96 @@
+package utility;
+
+import ticket.Ticket;
+import ticket.TicketType;
+
+import java.nio.file.Path;
+
+/**
+ * Хранилище билетов, на строки которого ссылаются элементы коллекции {@link TicketEntry}.
+ * <br>Строки только добавляются и не изменяются, поэтому строку, на которую ссылается снимок {@link TicketVector.Snapshot}, можно читать без блокировок,
+ * даже если в хранилище уже добавлены новые строки. Строки удаленных элементов остаются в хранилище, пока коллекция не перенесет живые строки
+ * в новое хранилище {@link TicketStore#empty}.
+ * <br>Добавление выполняется только из synchronized-методов {@link TicketVector}.
+ * Часто используемые при упорядочивании поля читаются отдельными методами без создания объекта {@link Ticket}
+ */
+public interface TicketStore {
+    /**
+     * Добавляет билет в хранилище
+     *
+     * @return возвращает номер строки
+     */
+    int add(Ticket ticket);
+
+    /**
+     * @return возвращает билет из указанной строки. Хранилище может каждый раз создавать новый объект
+     */
+    Ticket get(int row);
+
+    long id(int row);
+
+    String name(int row);
+
+    int price(int row);
+
+    TicketType type(int row);
+
+    long capacity(int row);
+
+    /**
+     * @return возвращает количество добавленных строк, включая строки удаленных элементов
+     */
+    int rows();
+
+    /**
+     * @return возвращает новое пустое хранилище того же вида
+     */
+    TicketStore empty();
+
+    /**
+     * Отмечает, что элемент со строкой удален из коллекции. Строка остается доступной снимкам, которые на нее ссылаются
+     */
+    default void release(int row) {
+    }
+
+    /**
+     * @return возвращает строки неудаленных элементов, сохранившиеся с прошлого запуска, в порядке добавления
+     */
+    default int[] recovered() {
+        return new int[0];
+    }
+
+    /**
+     * @return возвращает true, если строки хранилища сохраняются до следующего запуска {@link TicketStore#recovered}
+     */
+    default boolean persistent() {
+        return false;
+    }
+
+    /**
+     * @return возвращает метку журнала изменений базы данных, до которой актуальны строки {@link TicketStore#recovered}, или -1, если метки нет
+     */
+    default long recoveredMark() {
+        return -1;
+    }
+
+    /**
+     * Закрывает хранилище при выключении сервера
+     *
+     * @param mark метка журнала изменений базы данных, до которой актуальны строки хранилища, или -1, если метка неизвестна
+     */
+    default void close(long mark) {
+    }
+
+    /**
+     * @param name "heap", "columnar" или "mapped". Каталог файлов хранилища mapped задается системным свойством ticketStoreDir, по умолчанию - tickets
+     * @return возвращает хранилище указанного вида. Хранилище mapped может содержать строки с прошлого запуска {@link TicketStore#recovered}
+     */
+    static TicketStore forName(String name) {
+        return switch (name) {
+            case ("heap") -> new HeapTicketStore();
+            case ("columnar") -> new ColumnarTicketStore();
+            case ("mapped") -> new MappedTicketStore(Path.of(System.getProperty("ticketStoreDir", "tickets")));
+            default -> throw new IllegalArgumentException("Неизвестный вид хранилища - " + name);
+        };
+    }
+}
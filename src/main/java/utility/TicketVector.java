@@ -4,64 +4,625 @@ import ticket.Ticket;
 import ticket.TicketType;
 import ticket.Venue;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.ObjectOutputStream;
+import java.io.OutputStream;
 import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Comparator;
 import java.util.List;
-import java.util.Optional;
-import java.util.Vector;
-import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+import java.util.function.IntFunction;
+import java.util.function.Predicate;
+import java.util.stream.IntStream;
+import java.util.stream.LongStream;
+import java.util.stream.Stream;
 
 /**
- * Класс, отвечающий за организацию хранения и доступа к объектам класса {@link Ticket}. Тип коллекции, в которой хранятся объекты - Vector
+ * Класс, отвечающий за организацию хранения и доступа к объектам класса {@link Ticket}.
+ * <br>Коллекция хранится в виде неизменяемых снимков {@link Snapshot} на основе {@link ChunkedList}.
+ * Читающие методы берут текущий снимок без блокировок и работают с ним, сколько потребуется, не мешая изменениям.
+ * Изменяющие методы выполняются по одному, строят новый снимок с увеличенной версией и публикуют его одной записью в volatile-поле.
+ * <br>Сами билеты лежат в хранилище {@link TicketStore}: в куче объектами {@link HeapTicketStore}, по столбцам {@link ColumnarTicketStore}
+ * или вне кучи в отображенных в память файлах {@link MappedTicketStore}
+ * <br>Запросы, которые просматривают или упорядочивают много элементов, на больших коллекциях исполняются параллельно в отдельном пуле {@link TicketVector#query}
  */
 public class TicketVector {
+    /**
+     * Рекорд снимка коллекции. Кроме самих элементов, снимок хранит их упорядоченные представления, которые изменяются вместе с ним
+     *
+     * @param entries элементы коллекции в порядке добавления {@link TicketEntry#seq}
+     * @param bySize  те же элементы в порядке возрастания размера {@link TicketEntry#sizeKey}
+     * @param byPrice те же элементы в порядке возрастания цены {@link TicketEntry#priceKey}
+     * @param byRank  те же элементы в порядке {@link TicketEntry#BY_RANK_SEQ}. Крайние элементы - минимальный и максимальный билеты
+     * @param byVenue те же элементы в порядке {@link TicketEntry#BY_VENUE}. Первый элемент - билет с минимальным местом назначения
+     * @param byType  те же элементы, разложенные по типам: в корзине с номером {@link TicketType#ordinal} лежат билеты этого типа в порядке добавления
+     * @param names   индекс триграмм названий. Содержит все элементы снимка, но может содержать и другие, поэтому найденные по нему элементы проверяются по снимку
+     * @param store   хранилище, в которое добавляются билеты новых элементов. Элементы снимка ссылаются на его строки
+     * @param version версия коллекции, увеличивается при каждом изменении. По ней кэш результатов {@link ResultCache} определяет устаревшие записи
+     */
+    public record Snapshot(ChunkedList<TicketEntry> entries, ChunkedList<TicketEntry> bySize, ChunkedList<TicketEntry> byPrice,
+                           ChunkedList<TicketEntry> byRank, ChunkedList<TicketEntry> byVenue, List<ChunkedList<TicketEntry>> byType, NameIndex names,
+                           TicketStore store, long version) {
+        /**
+         * Число строк удаленных элементов, после которого живые строки можно перенести в новое хранилище
+         */
+        private static final int MIN_STORE_COMPACTION = 1024;
+
+        /**
+         * @return возвращает пустой снимок со своим индексом названий и указанным пустым хранилищем
+         */
+        static Snapshot empty(TicketStore store) {
+            return new Snapshot(ChunkedList.empty(), ChunkedList.empty(), ChunkedList.empty(), ChunkedList.empty(), ChunkedList.empty(),
+                    Collections.nCopies(TicketType.values().length, ChunkedList.empty()), new NameIndex(), store, 0);
+        }
+
+        public int size() {
+            return entries.size();
+        }
+
+        /**
+         * @return возвращает снимок с элементом, добавленным в конец. Элемент добавляется и в общий индекс названий {@link Snapshot#names}.
+         * Билет элемента уже должен лежать в хранилище {@link Snapshot#store}
+         */
+        Snapshot plus(TicketEntry entry) {
+            names.add(entry.seq(), entry.name());
+            return new Snapshot(entries.append(entry), bySize.insertSorted(TicketEntry::sizeKey, entry), byPrice.insertSorted(TicketEntry::priceKey, entry),
+                    byRank.insertSorted(TicketEntry.BY_RANK_SEQ, entry), byVenue.insertSorted(TicketEntry.BY_VENUE, entry),
+                    withBucket(entry, bucket(entry).append(entry)), names, store, version);
+        }
+
+        /**
+         * Добавляет много элементов слиянием {@link ChunkedList#mergeSorted}: каждое упорядоченное представление перестраивается один раз
+         *
+         * @param added элементы в порядке возрастания {@link TicketEntry#seq}, больших, чем у элементов снимка. Билеты уже должны лежать в хранилище
+         * @return возвращает снимок с добавленными элементами
+         */
+        Snapshot plusAll(List<TicketEntry> added) {
+            for (TicketEntry e : added) names.add(e.seq(), e.name());
+            List<ChunkedList<TicketEntry>> buckets = new ArrayList<>(byType);
+            for (int i = 0; i < buckets.size(); i++) {
+                int type = i;
+                buckets.set(i, buckets.get(i).appendAll(added.stream().filter(e -> e.type().ordinal() == type).toList()));
+            }
+            return new Snapshot(entries.appendAll(added), merge(bySize, Comparator.comparingLong(TicketEntry::sizeKey), added),
+                    merge(byPrice, Comparator.comparingLong(TicketEntry::priceKey), added), merge(byRank, TicketEntry.BY_RANK_SEQ, added),
+                    merge(byVenue, TicketEntry.BY_VENUE, added), Collections.unmodifiableList(buckets), names, store, version);
+        }
+
+        /**
+         * Собирает снимок из элементов и их уже известных порядков, без сортировки
+         *
+         * @param entries элементы в порядке возрастания {@link TicketEntry#seq}. Билеты уже должны лежать в хранилище
+         * @param orders  номера элементов в порядках {@link Snapshot#bySize}, {@link Snapshot#byPrice}, {@link Snapshot#byRank} и {@link Snapshot#byVenue}
+         * @param store   хранилище элементов
+         * @return возвращает снимок с версией 0
+         * @throws IllegalArgumentException если какой-то порядок не совпадает с порядком снимка
+         */
+        static Snapshot of(List<TicketEntry> entries, int[][] orders, TicketStore store) {
+            List<Comparator<TicketEntry>> comparators = List.of(Comparator.comparingLong(TicketEntry::sizeKey), Comparator.comparingLong(TicketEntry::priceKey),
+                    TicketEntry.BY_RANK_SEQ, TicketEntry.BY_VENUE);
+            List<ChunkedList<TicketEntry>> ordered = new ArrayList<>(orders.length);
+            for (int o = 0; o < orders.length; o++) {
+                List<TicketEntry> list = IntStream.of(orders[o]).mapToObj(entries::get).toList();
+                for (int i = 1; i < list.size(); i++)
+                    if (comparators.get(o).compare(list.get(i - 1), list.get(i)) >= 0) throw new IllegalArgumentException("Порядок " + o + " нарушен");
+                ordered.add(ChunkedList.<TicketEntry>empty().appendAll(list));
+            }
+            List<ChunkedList<TicketEntry>> buckets = new ArrayList<>();
+            for (TicketType type : TicketType.values())
+                buckets.add(ChunkedList.<TicketEntry>empty().appendAll(entries.stream().filter(e -> e.type() == type).toList()));
+            NameIndex names = new NameIndex();
+            for (TicketEntry e : entries) names.add(e.seq(), e.name());
+            return new Snapshot(ChunkedList.<TicketEntry>empty().appendAll(entries), ordered.get(0), ordered.get(1), ordered.get(2), ordered.get(3),
+                    Collections.unmodifiableList(buckets), names, store, 0);
+        }
+
+        private static ChunkedList<TicketEntry> merge(ChunkedList<TicketEntry> list, Comparator<TicketEntry> order, List<TicketEntry> added) {
+            return list.mergeSorted(order, added.stream().sorted(order).toList());
+        }
+
+        /**
+         * @return возвращает снимок без элемента с указанным индексом
+         */
+        Snapshot minus(int index) {
+            TicketEntry entry = entries.get(index);
+            names.removed(1);
+            entry.store().release(entry.row());
+            return new Snapshot(entries.removeAt(index), bySize.removeAt(bySize.indexOf(TicketEntry::sizeKey, entry.sizeKey())),
+                    byPrice.removeAt(byPrice.indexOf(TicketEntry::priceKey, entry.priceKey())),
+                    byRank.removeAt(byRank.indexOf(TicketEntry.BY_RANK_SEQ, entry)), byVenue.removeAt(byVenue.indexOf(TicketEntry.BY_VENUE, entry)),
+                    withBucket(entry, bucket(entry).removeAt(bucket(entry).indexOf(TicketEntry::seq, entry.seq()))), names, store, version);
+        }
+
+        /**
+         * @return возвращает снимок без элементов, удовлетворяющих условию
+         */
+        Snapshot minus(Predicate<TicketEntry> filter) {
+            ChunkedList<TicketEntry> kept = entries.removeIf(filter);
+            if (kept == entries) return this;
+            names.removed(entries.size() - kept.size());
+            entries.stream().filter(filter).forEach(e -> e.store().release(e.row()));
+            return new Snapshot(kept, bySize.removeIf(filter), byPrice.removeIf(filter), byRank.removeIf(filter), byVenue.removeIf(filter),
+                    byType.stream().map(b -> b.removeIf(filter)).toList(), names, store, version);
+        }
+
+        /**
+         * @return возвращает тот же снимок с другой версией
+         */
+        Snapshot withVersion(long version) {
+            return new Snapshot(entries, bySize, byPrice, byRank, byVenue, byType, names, store, version);
+        }
+
+        /**
+         * @return возвращает тот же снимок с новым индексом названий, построенным только по его элементам
+         */
+        Snapshot withCompactedNames() {
+            return new Snapshot(entries, bySize, byPrice, byRank, byVenue, byType, NameIndex.of(entries), store, version);
+        }
+
+        /**
+         * @return возвращает true, если строк удаленных элементов в хранилище больше, чем элементов, и живые строки пора перенести
+         */
+        boolean needsStoreCompaction() {
+            int dead = store.rows() - size();
+            return dead >= MIN_STORE_COMPACTION && dead > size();
+        }
+
+        /**
+         * Переносит билеты элементов в новое пустое хранилище того же вида. Порядки не пересчитываются: ключи элементов не меняются,
+         * поэтому каждый упорядоченный список заменяется списком перенесенных элементов с теми же границами частей
+         *
+         * @return возвращает тот же снимок с новым хранилищем без строк удаленных элементов
+         */
+        Snapshot withCompactedStore() {
+            TicketStore fresh = store.empty();
+            TicketEntry[] moved = new TicketEntry[store.rows()];
+            for (TicketEntry e : entries) moved[e.row()] = new TicketEntry(e.seq(), fresh, fresh.add(e.ticket()), e.size());
+            Function<TicketEntry, TicketEntry> move = e -> moved[e.row()];
+            return new Snapshot(entries.map(move), bySize.map(move), byPrice.map(move), byRank.map(move), byVenue.map(move),
+                    byType.stream().map(b -> b.map(move)).toList(), names, fresh, version);
+        }
+
+        /**
+         * Перенумеровывает элементы по порядку, начиная с 0. Новые номера идут в том же порядке, что и старые, поэтому порядки не пересчитываются,
+         * а каждый упорядоченный список заменяется списком перенумерованных элементов. Индекс названий строится заново
+         *
+         * @return возвращает тот же снимок с номерами элементов от 0 до {@link Snapshot#size} - 1
+         */
+        Snapshot withRenumberedSeqs() {
+            TicketEntry[] renumbered = new TicketEntry[store.rows()];
+            long seq = 0;
+            for (TicketEntry e : entries) renumbered[e.row()] = new TicketEntry(seq++, e.store(), e.row(), e.size());
+            Function<TicketEntry, TicketEntry> renumber = e -> renumbered[e.row()];
+            ChunkedList<TicketEntry> moved = entries.map(renumber);
+            return new Snapshot(moved, bySize.map(renumber), byPrice.map(renumber), byRank.map(renumber), byVenue.map(renumber),
+                    byType.stream().map(b -> b.map(renumber)).toList(), NameIndex.of(moved), store, version);
+        }
+
+        /**
+         * @return возвращает корзину {@link Snapshot#byType}, в которой лежит элемент
+         */
+        private ChunkedList<TicketEntry> bucket(TicketEntry entry) {
+            return byType.get(entry.type().ordinal());
+        }
+
+        /**
+         * @return возвращает корзины {@link Snapshot#byType}, в которых корзина типа элемента заменена на переданную
+         */
+        private List<ChunkedList<TicketEntry>> withBucket(TicketEntry entry, ChunkedList<TicketEntry> bucket) {
+            List<ChunkedList<TicketEntry>> buckets = new ArrayList<>(byType);
+            buckets.set(entry.type().ordinal(), bucket);
+            return Collections.unmodifiableList(buckets);
+        }
+
+        public Stream<Ticket> tickets() {
+            return entries.stream().map(TicketEntry::ticket);
+        }
+
+        public Stream<Ticket> ticketsBySize() {
+            return bySize.stream().map(TicketEntry::ticket);
+        }
+
+        /**
+         * Находит билеты, название которых содержит подстроку. Для запросов не короче {@link NameIndex#GRAM} символов кандидаты берутся
+         * из индекса {@link Snapshot#names} и проверяются, для коротких просматриваются все элементы
+         *
+         * @param parallel проверять элементы параллельно, если их не меньше {@link TicketVector#PARALLEL_THRESHOLD}
+         * @return возвращает найденные билеты в порядке возрастания размера, как и {@link Snapshot#ticketsBySize}
+         */
+        public List<Ticket> ticketsContainingName(String str, boolean parallel) {
+            int[] candidates = names.candidates(str);
+            if (candidates == null) return stream(bySize, parallel).filter(e -> e.name().contains(str)).map(TicketEntry::ticket).toList();
+            IntStream seqs = IntStream.of(candidates);
+            if (parallel && candidates.length >= PARALLEL_THRESHOLD) seqs = seqs.parallel();
+            return seqs.map(seq -> entries.indexOf(TicketEntry::seq, seq)).filter(index -> index >= 0).mapToObj(entries::get)
+                    .filter(e -> e.name().contains(str)).sorted(Comparator.comparingLong(TicketEntry::sizeKey)).map(TicketEntry::ticket).toList();
+        }
+
+        /**
+         * @param parallel обходить корзины параллельно, если в них не меньше {@link TicketVector#PARALLEL_THRESHOLD} элементов
+         * @return возвращает билеты по корзинам {@link Snapshot#byType} в порядке возрастания типа (от последнего значения {@link TicketType} к первому),
+         * билеты одного типа - в порядке добавления
+         */
+        public List<Ticket> ticketsAscendingType(boolean parallel) {
+            Stream<TicketEntry> result = Stream.empty();
+            for (int i = byType.size() - 1; i >= 0; i--) result = Stream.concat(result, stream(byType.get(i), parallel));
+            return result.map(TicketEntry::ticket).toList();
+        }
+
+        /**
+         * @return возвращает количество билетов, тип которых превышает переданный (значение {@link TicketType} объявлено раньше), по размерам корзин
+         */
+        public int countGreaterThanType(TicketType type) {
+            int count = 0;
+            for (int i = 0; i < type.ordinal(); i++) count += byType.get(i).size();
+            return count;
+        }
+
+        /**
+         * Находит двоичным поиском по {@link Snapshot#byPrice} элементы с ценой в диапазоне и упорядочивает только их по размеру,
+         * как и результат полного просмотра {@link Snapshot#ticketsBySize}
+         *
+         * @param from     наименьшая цена включительно
+         * @param to       наибольшая цена включительно
+         * @param parallel упорядочивать найденные элементы параллельно, если их не меньше {@link TicketVector#PARALLEL_THRESHOLD}
+         * @return возвращает билеты с ценой от from до to в порядке возрастания размера
+         */
+        public List<Ticket> ticketsByPrice(long from, long to, boolean parallel) {
+            if (from > to) return List.of();
+            int start = byPrice.lowerBound(TicketEntry::priceKey, TicketEntry.priceKey((int) Math.max(from, 0)));
+            int end = to >= Integer.MAX_VALUE ? byPrice.size() : byPrice.lowerBound(TicketEntry::priceKey, TicketEntry.priceKey((int) to + 1));
+            if (start >= end) return List.of();
+            List<TicketEntry> found = byPrice.slice(start, end);
+            Stream<TicketEntry> stream = parallel && found.size() >= PARALLEL_THRESHOLD ? found.parallelStream() : found.stream();
+            return stream.sorted(Comparator.comparingLong(TicketEntry::sizeKey)).map(TicketEntry::ticket).toList();
+        }
+
+        /**
+         * Ленивый вариант {@link Snapshot#ticketsContainingName} для отправки ответа частями: билеты элементов создаются по мере обхода.
+         * Если кандидатов из индекса не больше {@link TicketVector#SORT_LIMIT}, они упорядочиваются по размеру в памяти,
+         * иначе элементы отбираются при обходе {@link Snapshot#bySize}, поэтому память на запрос не зависит от размера коллекции
+         *
+         * @return возвращает элементы, название которых содержит подстроку, в порядке возрастания размера
+         */
+        public Stream<TicketEntry> entriesContainingName(String str) {
+            int[] candidates = names.candidates(str);
+            if (candidates == null || candidates.length > SORT_LIMIT) return bySize.stream().filter(e -> e.name().contains(str));
+            return IntStream.of(candidates).map(seq -> entries.indexOf(TicketEntry::seq, seq)).filter(index -> index >= 0).mapToObj(entries::get)
+                    .filter(e -> e.name().contains(str)).sorted(Comparator.comparingLong(TicketEntry::sizeKey));
+        }
+
+        /**
+         * Ленивый вариант {@link Snapshot#ticketsByPrice}. Если в диапазон по {@link Snapshot#byPrice} попало не больше {@link TicketVector#SORT_LIMIT} элементов,
+         * они упорядочиваются по размеру в памяти, иначе отбираются по цене при обходе {@link Snapshot#bySize}
+         *
+         * @param from наименьшая цена включительно
+         * @param to   наибольшая цена включительно
+         * @return возвращает элементы с ценой от from до to в порядке возрастания размера
+         */
+        public Stream<TicketEntry> entriesByPrice(long from, long to) {
+            if (from > to) return Stream.empty();
+            int start = byPrice.lowerBound(TicketEntry::priceKey, TicketEntry.priceKey((int) Math.max(from, 0)));
+            int end = to >= Integer.MAX_VALUE ? byPrice.size() : byPrice.lowerBound(TicketEntry::priceKey, TicketEntry.priceKey((int) to + 1));
+            if (start >= end) return Stream.empty();
+            if (end - start > SORT_LIMIT) return bySize.stream().filter(e -> e.price() >= from && e.price() <= to);
+            return byPrice.slice(start, end).stream().sorted(Comparator.comparingLong(TicketEntry::sizeKey));
+        }
+
+        /**
+         * Ленивый вариант {@link Snapshot#ticketsAscendingType}: корзины {@link Snapshot#byType} обходятся по очереди
+         */
+        public Stream<TicketEntry> entriesAscendingType() {
+            Stream<TicketEntry> result = Stream.empty();
+            for (int i = byType.size() - 1; i >= 0; i--) result = Stream.concat(result, byType.get(i).stream());
+            return result;
+        }
+
+        /**
+         * @return возвращает минимальный билет, из равных - добавленный раньше, или null, если снимок пуст
+         */
+        public Ticket minTicket() {
+            TicketEntry first = byRank.first();
+            return first == null ? null : first.ticket();
+        }
+
+        /**
+         * @return возвращает максимальный билет, из равных - добавленный раньше, или null, если снимок пуст
+         */
+        public Ticket maxTicket() {
+            TicketEntry last = byRank.last();
+            return last == null ? null : byRank.get(byRank.lowerBound(TicketEntry.BY_RANK, last)).ticket();
+        }
+
+        /**
+         * @return возвращает билет с минимальным местом назначения, из равных - добавленный раньше, или null, если снимок пуст
+         */
+        public Ticket minByVenue() {
+            TicketEntry first = byVenue.first();
+            return first == null ? null : first.ticket();
+        }
+    }
+
+    /**
+     * Общий пул параллельных запросов. Отдельный от пула исполнения команд сервера и от {@link ForkJoinPool#commonPool}.
+     * Число потоков задается системным свойством queryParallelism, по умолчанию - число процессоров
+     */
+    private static final ForkJoinPool QUERY_POOL = new ForkJoinPool(Integer.getInteger("queryParallelism", Runtime.getRuntime().availableProcessors()));
+    /**
+     * Число элементов, начиная с которого запрос делится на части и исполняется параллельно. Задается системным свойством parallelThreshold
+     */
+    static final int PARALLEL_THRESHOLD = Integer.getInteger("parallelThreshold", 50_000);
+
     /**
      * Поле даты и времени создания данного объекта
      */
     private final java.time.ZonedDateTime creationDate;
     /**
-     * Поле коллекции, в которой хранятся объекты класса {@link Ticket}
+     * Поле текущего снимка коллекции
      */
-    private final Vector<Ticket> tv = new Vector<>();
+    private volatile Snapshot snapshot;
     /**
-     * Поле длинны коллекции tv
-     *
-     * @see TicketVector#tv
+     * Поле индекса id билета -> {@link TicketEntry#seq}. Меняется вместе со снимком в synchronized-методах, читается без блокировок
+     */
+    private final LongIndex idIndex = new LongIndex();
+    /**
+     * Порядковый номер, который получит следующий добавленный элемент
+     */
+    private long nextSeq = 0;
+    /**
+     * Наибольшее число найденных элементов, которые ленивые запросы {@link Snapshot#entriesByPrice} и {@link Snapshot#entriesContainingName}
+     * упорядочивают по размеру в памяти. Если найдено больше, элементы отбираются при обходе {@link Snapshot#bySize}
      */
-    private final AtomicLong length = new AtomicLong(0);
+    static final int SORT_LIMIT = 16 * ChunkedList.CHUNK;
+    /**
+     * Поле пула, в котором исполняются параллельные запросы {@link TicketVector#query}. Если null, запросы исполняются последовательно
+     */
+    private volatile ForkJoinPool queryPool = QUERY_POOL;
 
+    /**
+     * Создает коллекцию с хранилищем, вид которого задан системным свойством ticketStore {@link TicketStore#forName}, по умолчанию - heap
+     */
     public TicketVector() {
+        this(TicketStore.forName(System.getProperty("ticketStore", "heap")));
+    }
+
+    /**
+     * @param store хранилище билетов. Строки, сохранившиеся в нем с прошлого запуска {@link TicketStore#recovered}, становятся элементами коллекции
+     */
+    public TicketVector(TicketStore store) {
         creationDate = java.time.ZonedDateTime.now();
+        int[] rows = store.recovered();
+        int[] sizes = serializedSizes(i -> store.get(rows[i]), rows.length);
+        List<TicketEntry> recovered = new ArrayList<>(rows.length);
+        for (int i = 0; i < rows.length; i++) {
+            TicketEntry entry = new TicketEntry(nextSeq++, store, rows[i], sizes[i]);
+            idIndex.put(entry.id(), entry.seq());
+            recovered.add(entry);
+        }
+        snapshot = Snapshot.empty(store).plusAll(recovered);
+    }
+
+    /**
+     * @return возвращает true, если коллекция восстановлена из хранилища с прошлого запуска и ее не нужно загружать из базы данных
+     */
+    public boolean isRecovered() {
+        return snapshot.version() == 0 && snapshot.size() > 0;
+    }
+
+    /**
+     * @return возвращает метку журнала изменений базы данных, до которой актуальна восстановленная коллекция {@link TicketStore#recoveredMark}
+     */
+    public long recoveredMark() {
+        return snapshot.store().recoveredMark();
+    }
+
+    /**
+     * Закрывает хранилище текущего снимка {@link TicketStore#close}
+     *
+     * @param mark метка журнала изменений базы данных, до которой актуальна коллекция, или -1
+     */
+    public synchronized void close(long mark) {
+        snapshot.store().close(mark);
+    }
+
+    /**
+     * @return возвращает текущий снимок коллекции. Снимок не меняется, даже если коллекция изменится
+     */
+    public Snapshot snapshot() {
+        return snapshot;
+    }
+
+    /**
+     * Заменяет пул параллельных запросов, например чтобы сравнить время запросов при разном числе потоков
+     *
+     * @param pool пул или null, чтобы исполнять запросы последовательно в вызывающем потоке
+     */
+    public void setQueryPool(ForkJoinPool pool) {
+        queryPool = pool;
+    }
+
+    /**
+     * @return возвращает пул параллельных запросов или null, если запросы исполняются последовательно
+     */
+    public ForkJoinPool getQueryPool() {
+        return queryPool;
+    }
+
+    /**
+     * Исполняет запрос к текущему снимку. Если в снимке не меньше {@link TicketVector#PARALLEL_THRESHOLD} элементов, запрос исполняется задачей
+     * в пуле {@link TicketVector#queryPool} с parallel = true: параллельные потоки, запущенные из задачи пула, делят работу между потоками этого же пула.
+     * Списки снимка делятся по границам частей {@link ChunkedList#spliterator}
+     *
+     * @param query запрос, которому передаются снимок и признак параллельного исполнения
+     * @return возвращает результат запроса
+     */
+    private <R> R query(BiFunction<Snapshot, Boolean, R> query) {
+        Snapshot s = snapshot;
+        ForkJoinPool pool = queryPool;
+        if (pool == null || s.size() < PARALLEL_THRESHOLD) return query.apply(s, false);
+        return pool.submit(() -> query.apply(s, true)).join();
+    }
+
+    /**
+     * @return возвращает поток элементов списка, параллельный, если parallel и элементов не меньше {@link TicketVector#PARALLEL_THRESHOLD}
+     */
+    private static <T> Stream<T> stream(ChunkedList<T> list, boolean parallel) {
+        return parallel && list.size() >= PARALLEL_THRESHOLD ? list.parallelStream() : list.stream();
     }
 
     /**
-     * Добавляет объект в коллекцию. При этом, если id объекта неоригинально, он не будет добавлен
+     * Публикует новый снимок, если коллекция изменилась. Вызывается только из synchronized-методов
+     */
+    private void publish(Snapshot next) {
+        if (next.entries() == snapshot.entries()) return;
+        if (next.names().needsCompaction()) next = next.withCompactedNames();
+        if (next.needsStoreCompaction()) next = next.withCompactedStore();
+        snapshot = next.withVersion(snapshot.version() + 1);
+    }
+
+    /**
+     * Добавляет элемент в конец снимка. Размер билета вычисляется здесь один раз {@link TicketVector#serializedSize}
+     */
+    private Snapshot append(Snapshot s, Ticket ticket) {
+        return append(s, ticket, serializedSize(ticket));
+    }
+
+    /**
+     * Добавляет элемент с уже вычисленным размером билета в конец снимка
+     */
+    private Snapshot append(Snapshot s, Ticket ticket, int size) {
+        s = reserveSeqs(s, 1);
+        TicketEntry entry = new TicketEntry(nextSeq++, s.store(), s.store().add(ticket), size);
+        idIndex.put(ticket.getId(), entry.seq());
+        return s.plus(entry);
+    }
+
+    /**
+     * Проверяет, что для count новых элементов хватит порядковых номеров меньше {@link TicketEntry#MAX_SEQ}. Если не хватит,
+     * элементы снимка перенумеровываются {@link Snapshot#withRenumberedSeqs}, и нумерация продолжается с их количества.
+     * Вызывается только из synchronized-методов
+     *
+     * @return возвращает снимок, к которому можно добавить элементы
+     */
+    private Snapshot reserveSeqs(Snapshot s, int count) {
+        if (nextSeq + count <= TicketEntry.MAX_SEQ) return s;
+        Snapshot renumbered = s.withRenumberedSeqs();
+        for (TicketEntry e : renumbered.entries()) idIndex.put(e.id(), e.seq());
+        nextSeq = renumbered.size();
+        return renumbered;
+    }
+
+    /**
+     * Находит элемент с указанным id по индексу {@link TicketVector#idIndex} и удаляет его из индекса
+     *
+     * @return возвращает снимок без этого элемента или тот же снимок, если элемента нет
+     */
+    private Snapshot without(Snapshot s, long id) {
+        long seq = idIndex.remove(id);
+        if (seq == LongIndex.MISSING) return s;
+        int index = s.entries().indexOf(TicketEntry::seq, seq);
+        return index < 0 ? s : s.minus(index);
+    }
+
+    /**
+     * Добавляет объект в коллекцию
      *
      * @param ticket объект класса {@link  Ticket}
      */
     public synchronized void add(Ticket ticket) {
-        tv.add(ticket);
-        length.incrementAndGet();
+        publish(append(snapshot, ticket));
+    }
+
+    /**
+     * Добавляет объекты в коллекцию одним изменением: новый снимок публикуется один раз, версия увеличивается на один.
+     * Если объектов не меньше {@link ChunkedList#CHUNK}, их размеры считаются параллельно {@link TicketVector#serializedSizes},
+     * а упорядоченные представления перестраиваются слиянием {@link Snapshot#plusAll}
+     *
+     * @param tickets объекты класса {@link Ticket}
+     */
+    public void addAll(List<Ticket> tickets) {
+        int[] sizes = serializedSizes(tickets::get, tickets.size());
+        synchronized (this) {
+            Snapshot s = snapshot;
+            if (tickets.size() < ChunkedList.CHUNK) {
+                for (int i = 0; i < sizes.length; i++) s = append(s, tickets.get(i), sizes[i]);
+            } else {
+                s = reserveSeqs(s, tickets.size());
+                List<TicketEntry> added = new ArrayList<>(tickets.size());
+                for (int i = 0; i < sizes.length; i++) {
+                    Ticket ticket = tickets.get(i);
+                    TicketEntry entry = new TicketEntry(nextSeq++, s.store(), s.store().add(ticket), sizes[i]);
+                    idIndex.put(ticket.getId(), entry.seq());
+                    added.add(entry);
+                }
+                s = s.plusAll(added);
+            }
+            publish(s);
+        }
+    }
+
+    /**
+     * Заполняет пустую коллекцию билетами файла снимка {@link SnapshotFile} одним изменением. Упорядоченные представления собираются
+     * по сохраненным порядкам {@link Snapshot#of}: номера добавления новых элементов идут в том же порядке, что и в сохраненном снимке,
+     * поэтому порядки с равными ключами не меняются. Если порядок не сходится, коллекция остается пустой
+     *
+     * @param tickets билеты в порядке коллекции
+     * @param sizes   размеры билетов {@link TicketVector#serializedSize} в том же порядке
+     * @param orders  номера билетов в порядках bySize, byPrice, byRank и byVenue
+     * @throws IllegalArgumentException если порядки не совпадают с билетами
+     * @throws IllegalStateException    если коллекция не пуста
+     */
+    synchronized void restore(List<Ticket> tickets, int[] sizes, int[][] orders) {
+        Snapshot s = snapshot;
+        if (s.size() > 0) throw new IllegalStateException("Коллекция не пуста");
+        s = reserveSeqs(s, tickets.size());
+        List<TicketEntry> entries = new ArrayList<>(tickets.size());
+        for (int i = 0; i < tickets.size(); i++) entries.add(new TicketEntry(nextSeq++, s.store(), s.store().add(tickets.get(i)), sizes[i]));
+        Snapshot restored;
+        try {
+            restored = Snapshot.of(entries, orders, s.store());
+        } catch (IllegalArgumentException e) {
+            // Коллекция и так пуста, publish не заменил бы снимок, поэтому хранилище с добавленными строками заменяется напрямую
+            snapshot = Snapshot.empty(s.store().empty());
+            throw e;
+        }
+        for (TicketEntry e : entries) idIndex.put(e.id(), e.seq());
+        publish(restored);
+    }
+
+    /**
+     * Считает размеры билетов {@link TicketVector#serializedSize}. Если билетов не меньше {@link ChunkedList#CHUNK}, размеры считаются параллельно
+     * в пуле {@link TicketVector#queryPool}
+     *
+     * @param tickets билет по номеру
+     * @param count   количество билетов
+     * @return возвращает размеры в том же порядке
+     */
+    private int[] serializedSizes(IntFunction<Ticket> tickets, int count) {
+        ForkJoinPool pool = queryPool;
+        IntStream indexes = IntStream.range(0, count);
+        if (pool == null || count < ChunkedList.CHUNK) return indexes.map(i -> serializedSize(tickets.apply(i))).toArray();
+        return pool.submit(() -> indexes.parallel().map(i -> serializedSize(tickets.apply(i))).toArray()).join();
     }
 
     public synchronized void clear() {
-        tv.clear();
-        length.set(0);
+        idIndex.clear();
+        publish(Snapshot.empty(snapshot.store().empty()));
     }
 
     /**
-     * Обновляет элемент коллекции с указанным id
+     * Обновляет элемент коллекции с указанным id. Обновленный элемент переносится в конец коллекции
      *
      * @param ticket объект типа {@link Ticket}
      * @param id     id объекта, который надо обновить. Предполагается, что id проверенно на корректность (в коллекции существует элемент с таким id) {@link TicketVector#validId}
      */
     public synchronized void update(Ticket ticket, long id) {
-        tv.removeIf(t -> t.getId() == id);
-        length.decrementAndGet();
-        add(ticket);
+        publish(append(without(snapshot, id), ticket));
     }
 
 
@@ -71,28 +632,42 @@ public class TicketVector {
      * @param index индекс элемента, который нужно удалить
      */
     public synchronized void remove(int index) {
-        tv.remove(index);
-        length.decrementAndGet();
+        idIndex.remove(snapshot.entries().get(index).id());
+        publish(snapshot.minus(index));
     }
 
     /**
-     * Удаляет все элементы коллекции, меньшие переданного объекта
+     * Удаляет все элементы коллекции, меньшие переданного объекта. Сравнение с каждым элементом - запрос {@link TicketVector#query},
+     * упорядоченные представления затем очищаются по найденным номерам {@link TicketEntry#seq}
      *
      * @param ticket объект класса {@link Ticket}, с которым производится сравнение {@link Ticket#compareTo}
      * @return возвращает количество удаленных объектов
      */
     public synchronized int removeLower(Ticket ticket) {
-        List<Ticket> delTickets = tv.stream().filter(t -> ticket.compareTo(t) > 0).toList();
-        length.addAndGet(-delTickets.size());
-        tv.removeAll(delTickets);
-        return delTickets.size();
+        List<TicketEntry> lower = query((s, parallel) -> stream(s.entries(), parallel).filter(e -> ticket.compareTo(e.ticket()) > 0).toList());
+        if (lower.isEmpty()) return 0;
+        long[] seqs = lower.stream().mapToLong(TicketEntry::seq).toArray();
+        publish(snapshot.minus(e -> Arrays.binarySearch(seqs, e.seq()) >= 0));
+        for (TicketEntry e : lower) idIndex.remove(e.id());
+        return lower.size();
     }
 
     /**
-     * @return возвращает массив со всеми элементами коллекции
+     * @return возвращает все элементы коллекции в порядке возрастания размера {@link TicketEntry#size}
      */
-    public synchronized List<Ticket> getAll() {
-        return sortBySize(tv.stream().toList());
+    public List<Ticket> getAll() {
+        return query((s, parallel) -> stream(s.bySize(), parallel).map(TicketEntry::ticket).toList());
+    }
+
+    /**
+     * Удаляет элементы коллекции с указанными id одним изменением. Id, которых нет в коллекции, пропускаются
+     *
+     * @param ids id элементов, которые нужно удалить
+     */
+    public synchronized void removeAllById(long[] ids) {
+        long[] seqs = LongStream.of(ids).map(idIndex::remove).filter(seq -> seq != LongIndex.MISSING).sorted().toArray();
+        if (seqs.length == 0) return;
+        publish(snapshot.minus(e -> Arrays.binarySearch(seqs, e.seq()) >= 0));
     }
 
     /**
@@ -101,121 +676,206 @@ public class TicketVector {
      * @param id id элемента, который нужно удалить. Предполагается, что id проверенно на корректность (в коллекции существует элемент с таким id) {@link TicketVector#validId}
      */
     public synchronized void removeById(long id) {
-        length.addAndGet(-tv.size());
-        tv.removeIf(t -> t.getId() == id);
-        length.addAndGet(tv.size());
+        publish(without(snapshot, id));
     }
 
     /**
-     * @return возвращает минимальный элемент коллекции в строковом представлении. Сравнение ведется по полю venue {@link Venue#compareTo}
+     * @return возвращает минимальный элемент коллекции в строковом представлении. Сравнение ведется по полю venue {@link Venue#compareTo}.
+     * Элемент берется из упорядоченного представления {@link Snapshot#byVenue} за O(1)
      */
-    public synchronized String getMinByVenue() {
-        Optional<Ticket> t = tv.stream().min(Comparator.comparing(Ticket::getVenue));
-        return t.isPresent() ? t.get().toString() : "Массив пустой";
+    public String getMinByVenue() {
+        Ticket t = snapshot.minByVenue();
+        return t != null ? t.toString() : "Массив пустой";
     }
 
     /**
      * @param str строка, по которой ведется поиск
-     * @return возвращает элементы, значение поля name которых содержит заданную подстроку
+     * @return возвращает элементы, значение поля name которых содержит заданную подстроку, в порядке возрастания размера.
+     * Поиск идет по индексу триграмм {@link NameIndex}
      */
-    public synchronized List<Ticket> filterContainsName(String str) {
-        return sortBySize(tv.stream().filter(t -> t.getName().contains(str)).toList());
+    public List<Ticket> filterContainsName(String str) {
+        return query((s, parallel) -> s.ticketsContainingName(str, parallel));
     }
 
     /**
      * @param price число
-     * @return возвращает элементы, значение поля price которых меньше заданного
+     * @return возвращает элементы, значение поля price которых меньше заданного, в порядке возрастания размера
      */
-    public synchronized List<Ticket> filterLessThanPrice(int price) {
-        return sortBySize(tv.stream().filter(t -> t.getPrice() < price).toList());
+    public List<Ticket> filterLessThanPrice(int price) {
+        return query((s, parallel) -> s.ticketsByPrice(0, (long) price - 1, parallel));
     }
 
     /**
      * @param price число
-     * @return возвращает элементы, значение поля price которых равно заданному
+     * @return возвращает элементы, значение поля price которых равно заданному, в порядке возрастания размера
+     */
+    public List<Ticket> filterByPrice(int price) {
+        return query((s, parallel) -> s.ticketsByPrice(price, price, parallel));
+    }
+
+    /**
+     * @param min наименьшая цена включительно
+     * @param max наибольшая цена включительно
+     * @return возвращает элементы, значение поля price которых лежит в диапазоне от min до max, в порядке возрастания размера
      */
-    public synchronized List<Ticket> filterByPrice(int price) {
-        return sortBySize(tv.stream().filter(t -> t.getPrice() == price).toList());
+    public List<Ticket> filterPriceBetween(int min, int max) {
+        return query((s, parallel) -> s.ticketsByPrice(min, max, parallel));
     }
 
     /**
-     * @return возвращает значения поля type всех элементов в порядке возрастания {@link TicketType}
+     * @return возвращает все элементы коллекции в порядке возрастания {@link TicketType}, элементы одного типа - в порядке добавления.
+     * Элементы берутся из корзин {@link Snapshot#byType} без сортировки
      */
-    public synchronized String getFieldAscendingType() {
-        StringBuilder str = new StringBuilder();
-        tv.stream().sorted((t1, t2) -> t2.getType().compareTo(t1.getType())).forEach(t -> str.append(String.format("id:%s - type:%s\n", t.getId(), t.getType())));
-        return str.toString();
+    public List<Ticket> getAscendingType() {
+        return query(Snapshot::ticketsAscendingType);
+    }
+
+    /**
+     * Ленивые варианты запросов {@link TicketVector#getAll}, filter_* и {@link TicketVector#getAscendingType} для отправки ответа частями {@link ResponseStream}.
+     * Обходят текущий снимок и не собирают результат целиком: билеты элементов {@link TicketEntry#ticket} создаются по мере отправки,
+     * поэтому память на запрос не зависит от размера коллекции, в том числе у хранилищ вне кучи
+     *
+     * @return возвращает элементы коллекции в порядке возрастания размера
+     */
+    public Stream<TicketEntry> entriesBySize() {
+        return snapshot.bySize().stream();
+    }
+
+    public Stream<TicketEntry> entriesContainingName(String str) {
+        return snapshot.entriesContainingName(str);
+    }
+
+    public Stream<TicketEntry> entriesLessThanPrice(int price) {
+        return snapshot.entriesByPrice(0, (long) price - 1);
+    }
+
+    public Stream<TicketEntry> entriesByPrice(int price) {
+        return snapshot.entriesByPrice(price, price);
+    }
+
+    public Stream<TicketEntry> entriesPriceBetween(int min, int max) {
+        return snapshot.entriesByPrice(min, max);
+    }
+
+    public Stream<TicketEntry> entriesAscendingType() {
+        return snapshot.entriesAscendingType();
     }
 
     /**
      * @param type тип билета {@link TicketType}
-     * @return возвращает количество элементов коллекции, тип которых превышает переданный
+     * @return возвращает количество элементов коллекции, тип которых превышает переданный. Считается по размерам корзин {@link Snapshot#byType} за O(1)
      */
-    public synchronized long getCountGreaterThanType(TicketType type) {
-        return tv.stream().filter(t -> type.compareTo(t.getType()) > 0).count();
+    public long getCountGreaterThanType(TicketType type) {
+        return snapshot.countGreaterThanType(type);
     }
 
     /**
-     * @return возвращает максимальный элемент коллекции {@link Ticket#compareTo}.
+     * @return возвращает максимальный элемент коллекции {@link Ticket#compareTo} из упорядоченного представления {@link Snapshot#byRank} за O(log n).
      * Если коллекция пуста вернет null
      */
-    public synchronized Ticket maxTicket() {
-        return tv.stream().max(Ticket::compareTo).orElse(null);
+    public Ticket maxTicket() {
+        return snapshot.maxTicket();
     }
 
     /**
-     * @return возвращает минимальный элемент коллекции {@link Ticket#compareTo}.
+     * @return возвращает минимальный элемент коллекции {@link Ticket#compareTo} из упорядоченного представления {@link Snapshot#byRank} за O(1).
      * Если коллекция пуста вернет null
      */
-    public synchronized Ticket minTicket() {
-        return tv.stream().min(Ticket::compareTo).orElse(null);
+    public Ticket minTicket() {
+        return snapshot.minTicket();
     }
 
     /**
-     * @return возвращает информацию об коллекции <b>дата инициализации {@link TicketVector#creationDate}</b>, <b>количество элементов {@link TicketVector#length}</b>, <b>максимальный элемент {@link TicketVector#maxTicket}</b>, <b>минимальный элемент {@link TicketVector#minTicket}</b>
+     * @return возвращает информацию об коллекции <b>дата инициализации {@link TicketVector#creationDate}</b>, <b>количество элементов</b>, <b>максимальный элемент {@link TicketVector#maxTicket}</b>, <b>минимальный элемент {@link TicketVector#minTicket}</b>.
+     * Все значения берутся из одного снимка
      */
-    public synchronized String getInfo() {
-        return String.format("Тип - Vector\nДата инициализации - %s\nКоличество элементов - %s\nМаксимальный элемент - %s\nМинимальный элемент - %s", creationDate.format(DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss ZZ")), length, maxTicket(), minTicket());
+    public String getInfo() {
+        Snapshot s = snapshot;
+        return String.format("Тип - Vector\nДата инициализации - %s\nКоличество элементов - %s\nМаксимальный элемент - %s\nМинимальный элемент - %s", creationDate.format(DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss ZZ")), s.size(), s.maxTicket(), s.minTicket());
     }
 
     /**
-     * Проверяет, что элемент с указанным id есть в коллекции
+     * Проверяет, что элемент с указанным id есть в коллекции. Проверка выполняется по индексу {@link TicketVector#idIndex} за O(1)
      *
      * @param id число
      * @return возвращает true, если в коллекции есть элемент с указанным id, false - если нет
      */
-    public synchronized boolean validId(long id) {
-        return tv.stream().anyMatch(t -> t.getId() == id);
+    public boolean validId(long id) {
+        return idIndex.contains(id);
     }
 
     /**
-     * Сортирует передаваемую коллекцию по возрастанию размера объекта
+     * Вычисляет размер билета в Java-сериализации (вместе с заголовком потока). По этому размеру упорядочены {@link Snapshot#bySize}
      *
-     * @param arr передаваемая коллекция
-     * @return возвращает отсортированную последовательность
+     * @param ticket билет
+     * @return возвращает размер в байтах
      */
+    static int serializedSize(Ticket ticket) {
+        try {
+            return SIZE_STREAMS.get().sizeOf(ticket);
+        } catch (IOException e) {
+            SIZE_STREAMS.remove();
+            throw new RuntimeException(e);
+        }
+    }
 
-    public List<Ticket> sortBySize(List<Ticket> arr) {
-        return arr.stream().sorted((t1, t2) -> {
-            int s1, s2;
-            try {
-                ByteArrayOutputStream baos = new ByteArrayOutputStream();
-                ObjectOutputStream oos = new ObjectOutputStream(baos);
-                oos.writeObject(t1);
-                s1 = baos.size();
-                oos = new ObjectOutputStream(baos);
-                oos.writeObject(t2);
-                oos.close();
-                s2 = baos.size() - s1;
-            } catch (IOException e) {
-                throw new RuntimeException(e);
-            }
-            return Long.compare(s1, s2);
-        }).toList();
+    /**
+     * Потоки {@link SizeStream}, свой у каждого потока исполнения
+     */
+    private static final ThreadLocal<SizeStream> SIZE_STREAMS = ThreadLocal.withInitial(() -> {
+        try {
+            return new SizeStream();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    });
+
+    /**
+     * Поток сериализации, который только считает записанные байты. Создать ObjectOutputStream дороже, чем записать в него билет,
+     * поэтому поток переиспользуется: после {@link ObjectOutputStream#reset} таблица ссылок пуста и билет записывается теми же байтами, что и в новый поток
+     */
+    private static final class SizeStream extends OutputStream {
+        /**
+         * Размер заголовка потока сериализации
+         */
+        private static final int HEADER = 4;
+        private final ObjectOutputStream oos;
+        private long count = 0;
+
+        SizeStream() throws IOException {
+            oos = new ObjectOutputStream(this);
+        }
+
+        @Override
+        public void write(int b) {
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            count += len;
+        }
+
+        int sizeOf(Ticket ticket) throws IOException {
+            oos.reset();
+            oos.flush();
+            long before = count;
+            oos.writeObject(ticket);
+            oos.flush();
+            return (int) (count - before) + HEADER;
+        }
+    }
+
+    /**
+     * @return возвращает текущую версию коллекции
+     */
+    public long getVersion() {
+        return snapshot.version();
     }
 
     public Long getIdByIndex(int index) {
-        if (index >= length.get()) return -1L;
-        return tv.get(index).getId();
+        ChunkedList<TicketEntry> entries = snapshot.entries();
+        if (index >= entries.size()) return -1L;
+        return entries.get(index).id();
     }
 }